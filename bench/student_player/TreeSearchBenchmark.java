@@ -0,0 +1,52 @@
+package student_player;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tablut.Perft;
+import tablut.TablutBenchmark;
+import tablut.TablutBoardState;
+
+/**
+ * Cost of one Monte Carlo iteration of TreeSearch (descent, rollout, backprop
+ * and growth). Each measurement iteration starts from a fresh tree that has
+ * already been grown for a while, like partway through a move.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeSearchBenchmark {
+    private static final int PREGROWN_ITERATIONS = 200;
+
+    private Node root;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        TablutBoardState.setThreadRandom(new Random(1917));
+        root = TreeSearch.createRoot(Perft.fromMoves(TablutBenchmark.MIDGAME));
+        for (int i = 0; i < PREGROWN_ITERATIONS; i++) {
+            TreeSearch.runIteration(root);
+        }
+    }
+
+    @Benchmark
+    public int searchIteration() {
+        TreeSearch.runIteration(root);
+        return root.getVisitCount();
+    }
+}
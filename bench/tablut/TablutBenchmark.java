@@ -0,0 +1,121 @@
+package tablut;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import coordinates.Coord;
+import coordinates.Coordinates;
+
+/**
+ * JMH benchmarks for the core of the tablut engine. Run with "ant bench", which
+ * also reports allocation rates through the gc profiler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TablutBenchmark {
+    // Positions are given as move lists from the start, as in data/perft.txt.
+    public static final String START = "";
+    public static final String MIDGAME = "4 7 8 7 0,4 2 1 2 1,3 0 3 2 0,5 4 5 5 1,0 3 2 3 0,5 5 5 6 1,7 4 7 6 0,"
+            + "3 4 3 3 1,4 0 3 0 0,4 3 7 3 1,3 2 8 2 0,1 2 1 3 1,3 0 1 0 0,5 6 6 6 1,5 8 5 3 0,4 6 2 6 1,"
+            + "4 1 1 1 0,6 4 5 4 1,0 4 0 2 0,3 3 3 2 1,0 5 2 5 0,4 4 4 1 1,7 6 7 7 0,5 4 5 5 1,7 7 3 7 0,"
+            + "4 1 3 1 1,8 4 5 4 0,3 2 7 2 1,5 4 6 4 0,2 4 2 2 1,2 5 2 4 0,3 1 3 4 1,8 5 6 5 0,6 6 6 8 1,"
+            + "3 7 3 5 0,2 2 2 1 1,5 0 4 0 0,4 5 4 1 1,8 7 3 7 0,4 1 7 1 1";
+
+    @Param({ "start", "midgame" })
+    public String position;
+
+    private TablutBoardState state;
+    private TablutMove move;
+    private int[] packedMoves;
+    private List<Coord> coords;
+
+    @Setup
+    public void setUp() {
+        state = Perft.fromMoves(position.equals("start") ? START : MIDGAME);
+        packedMoves = new int[TablutBoardState.MAX_MOVES];
+        int count = state.getAllLegalMoves(packedMoves);
+        move = TablutMove.unpack(packedMoves[count / 2]);
+        coords = Arrays.asList(Coordinates.get(0, 0), Coordinates.get(0, 4), Coordinates.get(4, 4),
+                Coordinates.get(8, 7));
+        TablutBoardState.setThreadRandom(new Random(1917));
+    }
+
+    @Benchmark
+    public Object cloneState() {
+        return state.clone();
+    }
+
+    // Includes a clone, so that every call processes the move on the same position.
+    // Subtract cloneState to get the cost of processMove alone.
+    @Benchmark
+    public Object processMove() {
+        TablutBoardState copy = (TablutBoardState) state.clone();
+        copy.processMove(move);
+        return copy;
+    }
+
+    @Benchmark
+    public int applyAndUndoMove() {
+        long undo = state.applyMove(move);
+        state.undoMove(undo);
+        return state.getTurnPlayer();
+    }
+
+    @Benchmark
+    public Object getAllLegalMoves() {
+        return state.getAllLegalMoves();
+    }
+
+    @Benchmark
+    public int getAllLegalMovesPacked() {
+        return state.getAllLegalMoves(packedMoves);
+    }
+
+    @Benchmark
+    public Object getRandomMove() {
+        return state.getRandomMove();
+    }
+
+    @Benchmark
+    public void getNeighbors(Blackhole blackhole) {
+        for (Coord c : coords) {
+            blackhole.consume(Coordinates.getNeighbors(c));
+        }
+    }
+
+    // A whole random game from the position, as done by MCTS rollouts.
+    @Benchmark
+    public int randomPlayout() {
+        TablutBoardState copy = (TablutBoardState) state.clone();
+        while (!copy.gameOver()) {
+            copy.processTrustedMove((TablutMove) copy.getRandomMove());
+        }
+        return copy.getWinner();
+    }
+
+    // Same playout through the allocation-free kernel.
+    @Benchmark
+    public int randomPlayoutKernel() {
+        TablutBoardState copy = (TablutBoardState) state.clone();
+        return copy.playRandomGame(Integer.MAX_VALUE);
+    }
+}
@@ -29,30 +29,18 @@ public final class Coord {
      */
     public List<Coord> getCoordsBetween(Coord c) {
         List<Coord> coords = new ArrayList<Coord>();
-        boolean updateY = this.x == c.x; // update y if x's are the same
-        boolean updateX = this.y == c.y; // update x if y's are the same
-
-        // So tedious, but necessary, I guess...
-        int start, end;
-        if (updateX && !updateY) {
-            start = this.x;
-            end = c.x;
-        } else if (updateY && !updateX) {
-            start = this.y;
-            end = c.y;
-        } else {
+        int from = Coordinates.getSquare(this);
+        int to = Coordinates.getSquare(c);
+        int direction = Coordinates.getDirection(from, to);
+        if (direction < 0) {
             return coords;
         }
 
-        // Set the increment and then do the incrementation.
-        int incr = (start > end) ? -1 : 1;
-        int i = start;
-        while (i != end) {
-            i += incr;
-            if (updateX)
-                coords.add(Coordinates.get(i, this.y));
-            else if (updateY)
-                coords.add(Coordinates.get(this.x, i));
+        // Walk the precomputed ray until we hit the other coord.
+        for (int square : Coordinates.getRay(from, direction)) {
+            if (square == to)
+                break;
+            coords.add(Coordinates.get(square));
         }
         return coords;
     }
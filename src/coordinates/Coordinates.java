@@ -9,19 +9,54 @@ import coordinates.Coord;
 
 public class Coordinates {
     private static Coord[][] allCoordinates;
+    private static Coord[] allSquares; // same coords, indexed by square number x * size + y
     private static int size;
     private static boolean isSet = false;
 
+    /*
+     * Directions used by the square-indexed tables below, in the order -x, -y, +x,
+     * +y. Rays list the squares met when sliding from a square in a direction,
+     * nearest first. Ray masks hold the same squares as bitboards, split into 64-bit
+     * words where square s is bit (s & 63) of word (s >>> 6).
+     */
+    public static final int NEG_X = 0;
+    public static final int NEG_Y = 1;
+    public static final int POS_X = 2;
+    public static final int POS_Y = 3;
+    public static final int NUM_DIRECTIONS = 4;
+    private static final int[] X_STEPS = { -1, 0, 1, 0 };
+    private static final int[] Y_STEPS = { 0, -1, 0, 1 };
+    public static final int OFF_BOARD = -1;
+    private static int[][][] rays; // [square][direction] -> squares along the ray
+    private static int[][] neighbors; // [square][direction] -> adjacent square or OFF_BOARD
+    private static int[][] sandwiches; // [square][direction] -> square two steps away or OFF_BOARD
+    private static long[][][] rayMasks; // [square][direction] -> mask words
+
+    /*
+     * The eight symmetries of the square board: 0 is the identity, 1-3 rotate by 90,
+     * 180 and 270 degrees, 4 mirrors x, 5 mirrors y, 6 swaps x and y and 7 swaps
+     * them across the other diagonal. The rotation by 90 takes (x, y) to
+     * (y, size - 1 - x).
+     */
+    public static final int IDENTITY = 0;
+    public static final int NUM_SYMMETRIES = 8;
+    private static final int[] INVERSE_SYMMETRIES = { 0, 3, 2, 1, 4, 5, 6, 7 };
+    private static int[][] symmetries; // [symmetry][square] -> transformed square
+
     // Sets all coords, should ONLY BE called once.
     public static void setAllCoordinates(int max) {
         if (!isSet) {
             size = max;
             allCoordinates = new Coord[max][max];
+            allSquares = new Coord[max * max];
             for (int i = 0; i < max; i++) {
                 for (int j = 0; j < max; j++) {
                     allCoordinates[i][j] = new Coord(i, j);
+                    allSquares[i * max + j] = allCoordinates[i][j];
                 }
             }
+            setRays(max);
+            setSymmetries(max);
             isSet = true;
         }
     }
@@ -30,6 +65,107 @@ public class Coordinates {
         return allCoordinates[i][j];
     }
 
+    // Coords can also be referred to by a single square number, x * size + y.
+    public static Coord get(int square) {
+        return allSquares[square];
+    }
+
+    public static int getSquare(Coord c) {
+        return c.x * size + c.y;
+    }
+
+    private static void setRays(int max) {
+        int words = (max * max + 63) / 64;
+        rays = new int[max * max][NUM_DIRECTIONS][];
+        rayMasks = new long[max * max][NUM_DIRECTIONS][words];
+        neighbors = new int[max * max][NUM_DIRECTIONS];
+        sandwiches = new int[max * max][NUM_DIRECTIONS];
+        for (int square = 0; square < max * max; square++) {
+            for (int dir = 0; dir < NUM_DIRECTIONS; dir++) {
+                int x = square / max + X_STEPS[dir];
+                int y = square % max + Y_STEPS[dir];
+                int length = 0;
+                int[] ray = new int[max];
+                while (x >= 0 && x < max && y >= 0 && y < max) {
+                    int next = x * max + y;
+                    ray[length++] = next;
+                    rayMasks[square][dir][next >>> 6] |= 1L << (next & 63);
+                    x += X_STEPS[dir];
+                    y += Y_STEPS[dir];
+                }
+                rays[square][dir] = Arrays.copyOf(ray, length);
+                neighbors[square][dir] = (length > 0) ? ray[0] : OFF_BOARD;
+                sandwiches[square][dir] = (length > 1) ? ray[1] : OFF_BOARD;
+            }
+        }
+    }
+
+    private static void setSymmetries(int max) {
+        int n = max - 1;
+        symmetries = new int[NUM_SYMMETRIES][max * max];
+        for (int x = 0; x < max; x++) {
+            for (int y = 0; y < max; y++) {
+                int[] images = { x * max + y, y * max + (n - x), (n - x) * max + (n - y), (n - y) * max + x,
+                        (n - x) * max + y, x * max + (n - y), y * max + x, (n - y) * max + (n - x) };
+                for (int symmetry = 0; symmetry < NUM_SYMMETRIES; symmetry++) {
+                    symmetries[symmetry][x * max + y] = images[symmetry];
+                }
+            }
+        }
+    }
+
+    // Where the given square ends up when the board is transformed by the symmetry.
+    public static int transform(int square, int symmetry) {
+        return symmetries[symmetry][square];
+    }
+
+    public static Coord transform(Coord c, int symmetry) {
+        return allSquares[symmetries[symmetry][getSquare(c)]];
+    }
+
+    // The symmetry that undoes the given one.
+    public static int inverseSymmetry(int symmetry) {
+        return INVERSE_SYMMETRIES[symmetry];
+    }
+
+    /**
+     * Squares met when sliding from the given square in the given direction, nearest
+     * first. The returned array is shared, do not modify it.
+     */
+    public static int[] getRay(int square, int direction) {
+        return rays[square][direction];
+    }
+
+    // Adjacent square in the given direction, or OFF_BOARD at the edge.
+    public static int getNeighbor(int square, int direction) {
+        return neighbors[square][direction];
+    }
+
+    /*
+     * Square with which a sandwich would be made around the neighbor of "front" in
+     * the given direction, or OFF_BOARD if it would be off the board.
+     */
+    public static int getSandwichSquare(int front, int direction) {
+        return sandwiches[front][direction];
+    }
+
+    // One 64-bit word of the bitboard holding the squares of getRay.
+    public static long getRayMask(int square, int direction, int word) {
+        return rayMasks[square][direction][word];
+    }
+
+    // Direction to slide in to get from one square to the other, or -1 if they don't
+    // share a row or column.
+    public static int getDirection(int from, int to) {
+        if (from == to)
+            return -1;
+        if (from / size == to / size)
+            return (to < from) ? NEG_Y : POS_Y;
+        if (from % size == to % size)
+            return (to < from) ? NEG_X : POS_X;
+        return -1;
+    }
+
     public static boolean isCorner(Coord c) {
         return isCorner(c.x, c.y);
     }
@@ -63,35 +199,28 @@ public class Coordinates {
     }
 
     public static List<Coord> getNeighbors(Coord c) {
-        List<Coord> neighbors = new ArrayList<>();
-        for (int incr : Arrays.asList(-1, 1)) {
-            try {
-                neighbors.add(get(c.x + incr, c.y));
-            } catch (IndexOutOfBoundsException e) {
-            }
-            try {
-                neighbors.add(get(c.x, c.y + incr));
-            } catch (IndexOutOfBoundsException e) {
-            }
+        List<Coord> neighborCoords = new ArrayList<>(NUM_DIRECTIONS);
+        int[] squares = neighbors[getSquare(c)];
+        for (int dir = 0; dir < NUM_DIRECTIONS; dir++) {
+            if (squares[dir] != OFF_BOARD)
+                neighborCoords.add(allSquares[squares[dir]]);
         }
-        return neighbors;
+        return neighborCoords;
     }
 
     // Returns the coordinate with which a sandwich would be made around "middle",
     // using "front".
     public static Coord getSandwichCoord(Coord front, Coord middle) throws CoordinateDoesNotExistException {
-        int xDiff = front.x - middle.x;
-        int yDiff = front.y - middle.y;
-        if (xDiff * yDiff != 0 || xDiff + yDiff == 0) {
+        int direction = getDirection(getSquare(front), getSquare(middle));
+        if (front.maxDifference(middle) != 1 || direction < 0) {
             throw new CoordinateDoesNotExistException(
                     "These coordinates are not adjacent: " + front.toString() + " and " + middle.toString());
         }
-        try {
-            Coord back = get(middle.x - xDiff, middle.y - yDiff);
-            return back;
-        } catch (IndexOutOfBoundsException e) {
+        int back = sandwiches[getSquare(front)][direction];
+        if (back == OFF_BOARD) {
             throw new CoordinateDoesNotExistException("The sandwich coordinate would be off the board.");
         }
+        return allSquares[back];
     }
 
     // Given a coordinate, returns the distance between it and the closest corner.
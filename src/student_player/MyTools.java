@@ -1,7 +1,6 @@
 package student_player;
 
 import coordinates.Coord;
-import coordinates.Coordinates;
 import tablut.TablutBoardState;
 import tablut.TablutBoardState.Piece;
 import tablut.TablutMove;
@@ -52,20 +51,13 @@ public class MyTools {
     
     /**
      * Checks if a state is safe for the king
-     * Currently, the heuristic is that an unsafe state is when it has a Muscovite next to it,
-     * and with the opposing adjacent tile being empty (ripe for the taking)
+     * An unsafe state is one where the Muscovites could capture the king with their next move
+     * (a captured king is never safe)
      * @param state		current board state
      * @return			if the state is safe
      */
     public static boolean isStateSafeForKing(TablutBoardState state) {
     	Coord kingPos = state.getKingPosition();
-    	Piece[] adj = getAdjacentPieces(state, kingPos);
-    	
-    	if (Coordinates.isCenterOrNeighborCenter(kingPos) && !Coordinates.isCenter(kingPos)) {
-    		return false;
-    	}
-    	
-    	return !(adj[0] == Piece.EMPTY && adj[1] == Piece.BLACK || adj[1] == Piece.EMPTY && adj[0] == Piece.BLACK
-    			|| adj[2] == Piece.EMPTY && adj[3] == Piece.BLACK || adj[3] == Piece.EMPTY && adj[2] == Piece.BLACK);
+    	return kingPos != null && !state.isCapturable(kingPos);
     }
 }
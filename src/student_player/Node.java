@@ -1,19 +1,35 @@
 package student_player;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import tablut.TablutBoardState;
 import tablut.TablutMove;
 
 public class Node implements Comparable<Node> {
+	private static final List<Node> NO_CHILDREN = Collections.emptyList();
+	
+	// several search threads may share a tree, so the statistics are updated atomically and
+	// the children are installed in one go by compare-and-set (see setChildren)
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<Node, List> CHILDREN =
+			AtomicReferenceFieldUpdater.newUpdater(Node.class, List.class, "children");
+	private static final AtomicLongFieldUpdater<Node> WIN_SCORE = AtomicLongFieldUpdater.newUpdater(Node.class, "winScoreBits");
+	private static final AtomicIntegerFieldUpdater<Node> VISIT_COUNT = AtomicIntegerFieldUpdater.newUpdater(Node.class, "visitCount");
+	private static final AtomicIntegerFieldUpdater<Node> EXPANDING = AtomicIntegerFieldUpdater.newUpdater(Node.class, "expanding");
+	
 	private TablutBoardState boardState;
 	private TablutMove previousMove;
 	private Node parent;
-	private List<Node> children;
-	private double winScore;
-	private int visitCount;
+	private volatile List<Node> children;
+	private volatile long winScoreBits; // the win score as Double bits
+	private volatile int visitCount;
+	private volatile int expanding; // 1 once a search thread has claimed the node, see claimExpansion
 	
 	/**
 	 * Creates new tree node
@@ -25,20 +41,21 @@ public class Node implements Comparable<Node> {
         
         boardState = initialBoardState;
         previousMove = appliedMove;
-        children = new ArrayList<Node>();
-        winScore = 0;
+        children = NO_CHILDREN;
+        winScoreBits = Double.doubleToRawLongBits(0);
         visitCount = 0;
         
         // only try to apply move if one is given
+        // moves come from the board's own move generator, so skip validation
         if (appliedMove != null) {
-        	initialBoardState.processMove(appliedMove);
+        	initialBoardState.processTrustedMove(appliedMove);
         }
 	}
 	
 	// make comparable so that we can compare which child to choose at end of search
 	@Override
 	public int compareTo(Node other) {
-		return (int) (winScore - other.getWinScore());
+		return Double.compare(getWinScore(), other.getWinScore());
 	}
 	
 	/**
@@ -66,7 +83,7 @@ public class Node implements Comparable<Node> {
 	}
 	
 	public double getWinScore() {
-		return winScore;
+		return Double.longBitsToDouble(winScoreBits);
 	}
 	
 	public int getVisitCount() {
@@ -79,12 +96,42 @@ public class Node implements Comparable<Node> {
 	
 	
 	/**
-	 * Adds child to this node and sets child's parent as this node
-	 * @param childNode		node to be appended as child
+	 * Claims the node for expansion, so that only one search thread builds its children
+	 * @return		if this thread got the claim
+	 */
+	public boolean claimExpansion() {
+		return EXPANDING.compareAndSet(this, 0, 1);
+	}
+	
+	/**
+	 * Makes the given nodes the children of this one, unless it already has children
+	 * (another search thread may have expanded it first, in which case ours are dropped)
+	 * @param childNodes	nodes to be appended as children
+	 * @return				if the children were installed
+	 */
+	public boolean setChildren(Node[] childNodes) {
+		for (Node child : childNodes) {
+			child.setParent(this);
+		}
+		return CHILDREN.compareAndSet(this, NO_CHILDREN, Arrays.asList(childNodes));
+	}
+	
+	/**
+	 * Adds more children next to the ones this node already has
+	 * @param childNodes	nodes to be appended as children
 	 */
-	public void addChild(Node childNode) {
-		children.add(childNode);
-		childNode.setParent(this);
+	public void addChildren(Node[] childNodes) {
+		for (Node child : childNodes) {
+			child.setParent(this);
+		}
+		List<Node> current;
+		List<Node> updated;
+		do {
+			current = children;
+			updated = new ArrayList<Node>(current.size() + childNodes.length);
+			updated.addAll(current);
+			updated.addAll(Arrays.asList(childNodes));
+		} while (!CHILDREN.compareAndSet(this, current, updated));
 	}
 	
 	/**
@@ -92,8 +139,25 @@ public class Node implements Comparable<Node> {
 	 * @param ws	win score from random simulation
 	 */
 	public void addResult(double ws) {
-		winScore +=ws;
-		visitCount++;
+		addResults(ws, 1);
+	}
+	
+	/**
+	 * Adds the results of several simulations at once, e.g. from another tree. Also used
+	 * with negative visits to take back a virtual loss.
+	 * @param ws		total win score
+	 * @param visits	number of simulations
+	 */
+	public void addResults(double ws, int visits) {
+		if (ws != 0) {
+			long bits;
+			do {
+				bits = winScoreBits;
+			} while (!WIN_SCORE.compareAndSet(this, bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + ws)));
+		}
+		if (visits != 0) {
+			VISIT_COUNT.addAndGet(this, visits);
+		}
 	}
 	
 	/**
@@ -102,7 +166,18 @@ public class Node implements Comparable<Node> {
 	 * @return	best child
 	 */
 	public Node getBestChild() {
-		double maxScore = 0;
+		return getBestChild(0);
+	}
+	
+	/**
+	 * Calculates best child according to Upper Confidence Tree equation, among the children
+	 * scoring above a floor. The first child is taken when none does.
+	 * @param minScore	floor a child's score has to beat, e.g. Double.NEGATIVE_INFINITY
+	 * 					when virtual losses can make every score negative
+	 * @return			best child
+	 */
+	public Node getBestChild(double minScore) {
+		double maxScore = minScore;
 		List<Node> children = this.getChildren();
 		List<Node> unexplored = new ArrayList<Node>();
 		Node bestChild = children.get(0);
@@ -121,7 +196,7 @@ public class Node implements Comparable<Node> {
 		
 		// randomly select an unexplored node if any exist
 		if (unexplored.size() > 0) {
-			int random = new Random().nextInt(unexplored.size());
+			int random = TablutBoardState.getThreadRandom().nextInt(unexplored.size());
 			return unexplored.get(random);
 		}
 		
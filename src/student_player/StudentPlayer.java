@@ -1,5 +1,6 @@
 package student_player;
 
+import boardgame.BoardState;
 import boardgame.Move;
 import tablut.TablutBoardState;
 import tablut.TablutPlayer;
@@ -28,4 +29,23 @@ public class StudentPlayer extends TablutPlayer {
         // Return your move to be processed by the server.
         return myMove;
     }
-}
\ No newline at end of file
+
+    /**
+     * Both our moves and the opponent's come through here, so the search tree can
+     * follow the game and be reused on our next turn. While the opponent thinks,
+     * we keep searching in the background.
+     */
+    @Override
+    public void movePlayed(BoardState boardState, Move move) {
+        TablutBoardState state = (TablutBoardState) boardState;
+        TreeSearch.advanceRoot(state, move);
+        if (!state.gameOver() && state.getTurnPlayer() != getColor()) {
+            TreeSearch.startPondering();
+        }
+    }
+
+    @Override
+    public void gameOver(String msg, BoardState bs) {
+        TreeSearch.discardTree();
+    }
+}
@@ -1,10 +1,24 @@
 package student_player;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadFactory;
 
 import boardgame.Board;
 import boardgame.Move;
+import boardgame.Server;
 import coordinates.Coord;
 import coordinates.Coordinates;
 import tablut.TablutBoardState;
@@ -25,6 +39,38 @@ public class TreeSearch {
     // timing constants to prevent loop from timing out
     private static final int TIME_LIMIT_MS = 2000;
     private static final int GRACE_PERIOD_MS = 1500;
+    
+    // tree kept between turns, moved along the moves played by advanceRoot
+    private static Node savedRoot;
+    
+    // root parallelism: with -Dtablut.searchThreads=N, N - 1 helper threads each search their
+    // own tree next to ours and their root statistics are merged into ours before choosing
+    private static final int SEARCH_THREADS = Math.max(1, Integer.getInteger("tablut.searchThreads", 1));
+    private static ExecutorService helperPool;
+    
+    // tree parallelism: with -Dtablut.sharedTree=true as well, the helpers search our tree
+    // instead. Every node on the way down gets a virtual loss, taken back by backprop, so
+    // that threads descending at the same time spread over different branches.
+    private static final boolean SHARED_TREE = Boolean.getBoolean("tablut.sharedTree") && SEARCH_THREADS > 1;
+    private static final int VIRTUAL_LOSS = 1;
+    private static final int virtualLoss = SHARED_TREE ? VIRTUAL_LOSS : 0;
+    
+    // leaf parallelism: with -Dtablut.leafRollouts=K, every iteration plays K random games
+    // from its leaf on a ForkJoinPool and backpropagates their average once
+    private static final int LEAF_ROLLOUTS = Math.max(1, Integer.getInteger("tablut.leafRollouts", 1));
+    private static final ForkJoinPool rolloutPool = (LEAF_ROLLOUTS > 1) ? new ForkJoinPool(LEAF_ROLLOUTS) : null;
+    
+    // background search on the opponent's time, see startPondering. Only worth it with a core
+    // to spare, otherwise it just slows the opponent down; -Dtablut.ponder overrides.
+    private static final boolean PONDER = Boolean.parseBoolean(System.getProperty("tablut.ponder",
+    		Boolean.toString(Runtime.getRuntime().availableProcessors() > 1)));
+    // safety caps: the longest the opponent may think, and the nodes pondering may add. A node
+    // and its board state retain about 330 bytes (measured), so 150000 nodes are about 50 MB,
+    // under a tenth of a 520 MB heap; the tree is kept while the opponent moves.
+    private static final int MAX_PONDER_MS = Server.FIRST_MOVE_TIMEOUT;
+    private static final int MAX_PONDER_NODES = 150000;
+    private static Thread ponderThread;
+    private static volatile boolean pondering;
 	
     /**
      * Runs a Monte Carlo Tree Search to find next move
@@ -33,41 +79,35 @@ public class TreeSearch {
      */
 	public static Move searchForMove(TablutBoardState boardState) {
         
-		// make player IDs available for tree search use
-        opp_id = boardState.getOpponent();
-        player_id = (opp_id == TablutBoardState.SWEDE) ? TablutBoardState.MUSCOVITE : TablutBoardState.SWEDE;
+        // initialize tree for tree search, reusing last turn's tree if the game went down it
+        stopPondering();
+        Node root = reuseOrCreateRoot(boardState);
+        savedRoot = root;
         
-        // initialize tree for tree search
-        Node root = new Node(boardState, null);
+        // expand the root here, so that every search thread (and chooseMove) finds its children
+        expandRoot(root);
         
-        final long START_TIME = System.currentTimeMillis();
         // loop Monte Carlo simulations until time budget runs out
         // occasionally algorithm will get blocked for one reason or another, so add
         // grace period to let current iteration finish
-        while (System.currentTimeMillis() - START_TIME < TIME_LIMIT_MS - GRACE_PERIOD_MS) {
-        	
-        	// 1. descent with tree policy (upper confidence trees)
-        	Node selectedLeaf = descendAndGetBestLeaf(root);
-
-        	// 2. roll out with default policy (random simulations)
-        	double winScore = rollOutAndGetWinScore(selectedLeaf);
-
-        	// 3. update win scores with backpropagation
-        	backprop(selectedLeaf, winScore);
-        	
-        	// 4. grow tree with selected leaf node
-        	growSearchTree(selectedLeaf);
-
-            List<Node> children = root.getChildren();
-            Node bestNode = Collections.max(children);
-            
-            // If we've decided to visit a node a certain number of times,
-            // we can say that it was the clear choice
-            if (bestNode.getVisitCount() >= MAX_VISIT_COUNT) {
-            	System.out.println("YOUR ARMY'S ADVISORS HAVE COME TO AN EARLY CONSENSUS ON A TACTICAL DECISION");
-            	break;
-            }
-        }
+        final long DEADLINE = System.currentTimeMillis() + TIME_LIMIT_MS - GRACE_PERIOD_MS;
+        List<Future<Node>> helpers = startHelperSearches(root, boardState, DEADLINE);
+        searchUntil(root, DEADLINE);
+        List<Node> helperRoots = mergeHelperResults(root, helpers);
+        Move move = chooseMove(root, boardState);
+        
+        // the tree is kept for the next turn, so leave it with its own statistics only
+        takeBackHelperResults(root, helperRoots);
+        return move;
+	}
+	
+	/**
+	 * Picks the move to play once the search is over
+	 * @param root			root of the searched tree
+	 * @param boardState	state before the move
+	 * @return				best move as per MCTS simulations and our tactics
+	 */
+	private static Move chooseMove(Node root, TablutBoardState boardState) {
         
         // once time expired, select best move
         List<Node> children = root.getChildren();
@@ -130,11 +170,12 @@ public class TreeSearch {
             	// but only if you aren't superseding a winning move!
             	if (bestNode.getBoardState().getWinner() != player_id) {
                 	Move manualMove = null;
-                	List<TablutMove> moveset = boardState.getAllLegalMoves();
                 	
-                	for (TablutMove move : moveset) {
-                		if (move.getEndPosition().distance(kingPos) == 1 && !(MyTools.isStateSafeForKing(boardState))) {
-                			manualMove = move;
+                	// the first stage of staged moves holds exactly the moves that capture the king
+                	if (!MyTools.isStateSafeForKing(boardState)) {
+                		TablutBoardState.StagedMoves moves = boardState.getStagedMoves();
+                		if (moves.hasNext() && moves.getStage() == TablutBoardState.STAGE_WINS) {
+                			manualMove = TablutMove.unpack(moves.next());
                 		}
                 	}
                     
@@ -152,6 +193,322 @@ public class TreeSearch {
         return bestNode.getPreviousMove();
 	}
 	
+	/**
+	 * Creates the root of a new search tree for the player to move
+	 * @param boardState	state to search from, owned by the tree from now on
+	 * @return				root node
+	 */
+	static Node createRoot(TablutBoardState boardState) {
+		// make player IDs available for tree search use
+        opp_id = boardState.getOpponent();
+        player_id = (opp_id == TablutBoardState.SWEDE) ? TablutBoardState.MUSCOVITE : TablutBoardState.SWEDE;
+        
+        return new Node(boardState, null);
+	}
+	
+	/**
+	 * Runs Monte Carlo iterations on a tree until the deadline, or until one of the root's
+	 * children has been visited often enough to be the clear choice
+	 * @param root		root of the search tree
+	 * @param deadline	time to stop at, as from System.currentTimeMillis()
+	 */
+	private static void searchUntil(Node root, long deadline) {
+		// a reused tree comes with visits from earlier searches, only count this one's
+		Map<Node, Integer> startVisits = new HashMap<Node, Integer>();
+		for (Node child : root.getChildren()) {
+			startVisits.put(child, child.getVisitCount());
+		}
+		
+        while (System.currentTimeMillis() < deadline) {
+        	
+        	runIteration(root);
+
+            List<Node> children = root.getChildren();
+            if (children.isEmpty()) {
+            	continue;
+            }
+            Node bestNode = Collections.max(children);
+            Integer bestStartVisits = startVisits.get(bestNode);
+            
+            // If we've decided to visit a node a certain number of times,
+            // we can say that it was the clear choice
+            if (bestNode.getVisitCount() - (bestStartVisits == null ? 0 : bestStartVisits) >= MAX_VISIT_COUNT) {
+            	System.out.println("YOUR ARMY'S ADVISORS HAVE COME TO AN EARLY CONSENSUS ON A TACTICAL DECISION");
+            	break;
+            }
+        }
+	}
+	
+	/**
+	 * Starts one search per helper thread, each on a fresh tree for its own copy of the board,
+	 * or all on our tree when sharing it. Every thread draws from its own random number generator.
+	 * @param root			root of our tree
+	 * @param boardState	state to search from
+	 * @param deadline		time to stop at
+	 * @return				roots of the helper trees, once searched
+	 */
+	private static List<Future<Node>> startHelperSearches(Node root, TablutBoardState boardState, final long deadline) {
+		List<Future<Node>> helpers = new ArrayList<Future<Node>>();
+		if (SEARCH_THREADS == 1) {
+			return helpers;
+		}
+		if (helperPool == null) {
+			helperPool = Executors.newFixedThreadPool(SEARCH_THREADS - 1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "search-helper");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		for (int i = 1; i < SEARCH_THREADS; i++) {
+			// copy the board here, before our own search starts using it
+			final Node helperRoot = SHARED_TREE ? root : new Node((TablutBoardState) boardState.clone(), null);
+			helpers.add(helperPool.submit(new Callable<Node>() {
+				@Override
+				public Node call() {
+					searchUntil(helperRoot, deadline);
+					return helperRoot;
+				}
+			}));
+		}
+		return helpers;
+	}
+	
+	/**
+	 * Adds the root statistics of the helper trees to our root and its children, matching
+	 * children by move. Moves that only a helper tried get a child in our tree too.
+	 * If a helper failed, the search fails: its exception is rethrown once all the helpers
+	 * are done, with nothing merged and the saved tree dropped.
+	 * @param root		root of our tree
+	 * @param helpers	helper searches started by startHelperSearches
+	 * @return			roots of the helper trees that were merged
+	 * @throws IllegalStateException	if a helper search threw
+	 */
+	private static List<Node> mergeHelperResults(Node root, List<Future<Node>> helpers) {
+		List<Node> helperRoots = new ArrayList<Node>();
+		if (helpers.isEmpty()) {
+			return helperRoots;
+		}
+		Map<Integer, Node> children = getChildrenByMove(root);
+		ExecutionException failure = null;
+		for (Future<Node> helper : helpers) {
+			Node helperRoot;
+			try {
+				helperRoot = helper.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				// keep waiting for the others, so no helper is still using the tree
+				failure = e;
+				continue;
+			}
+			if (helperRoot == root) {
+				// a shared tree already holds everything
+				continue;
+			}
+			helperRoots.add(helperRoot);
+			root.addResults(helperRoot.getWinScore(), helperRoot.getVisitCount());
+			for (Node helperChild : helperRoot.getChildren()) {
+				TablutMove move = helperChild.getPreviousMove();
+				Node child = children.get(move.toPacked());
+				if (child == null) {
+					child = new Node((TablutBoardState) root.getBoardState().clone(), move);
+					root.addChildren(new Node[] { child });
+					children.put(move.toPacked(), child);
+				}
+				child.addResults(helperChild.getWinScore(), helperChild.getVisitCount());
+			}
+		}
+		if (failure != null) {
+			// a shared tree may hold the failed helper's half-finished iteration
+			takeBackHelperResults(root, helperRoots);
+			savedRoot = null;
+			throw new IllegalStateException("Search helper failed", failure.getCause());
+		}
+		return helperRoots;
+	}
+	
+	/**
+	 * Takes the statistics added by mergeHelperResults back out of our tree, since the
+	 * subtrees below our root's children never got the helpers' visits
+	 * @param root			root of our tree
+	 * @param helperRoots	roots of the helper trees that were merged
+	 */
+	private static void takeBackHelperResults(Node root, List<Node> helperRoots) {
+		if (helperRoots.isEmpty()) {
+			return;
+		}
+		Map<Integer, Node> children = getChildrenByMove(root);
+		for (Node helperRoot : helperRoots) {
+			root.addResults(-helperRoot.getWinScore(), -helperRoot.getVisitCount());
+			for (Node helperChild : helperRoot.getChildren()) {
+				Node child = children.get(helperChild.getPreviousMove().toPacked());
+				child.addResults(-helperChild.getWinScore(), -helperChild.getVisitCount());
+			}
+		}
+	}
+	
+	private static Map<Integer, Node> getChildrenByMove(Node node) {
+		Map<Integer, Node> children = new HashMap<Integer, Node>();
+		for (Node child : node.getChildren()) {
+			children.put(child.getPreviousMove().toPacked(), child);
+		}
+		return children;
+	}
+	
+	/**
+	 * Gets the saved tree's root if it is for the given state, otherwise creates a new root
+	 * @param boardState	state to search from
+	 * @return				root node
+	 */
+	private static Node reuseOrCreateRoot(TablutBoardState boardState) {
+		if (savedRoot != null && savedRoot.getBoardState().getHashKey() == boardState.getHashKey()
+				&& savedRoot.getBoardState().getTurnNumber() == boardState.getTurnNumber()) {
+			opp_id = boardState.getOpponent();
+			player_id = boardState.getTurnPlayer();
+			return savedRoot;
+		}
+		return createRoot(boardState);
+	}
+	
+	/**
+	 * Gives the root a child for every legal move before the search starts. A new root has
+	 * none yet, and a reused one was expanded deeper in the tree, where redundant moves are
+	 * left out and only MAX_CHILDREN_TO_EXPAND children are made.
+	 * @param root	root of the search tree
+	 */
+	private static void expandRoot(Node root) {
+		List<Node> children = root.getChildren();
+		TablutBoardState bs = root.getBoardState();
+		List<TablutMove> options = bs.getAllLegalMoves();
+		if (children.size() >= options.size()) {
+			return;
+		}
+		Collections.shuffle(options, TablutBoardState.getThreadRandom());
+		Set<Integer> expanded = new HashSet<Integer>();
+		for (Node child : children) {
+			expanded.add(child.getPreviousMove().toPacked());
+		}
+		List<Node> missing = new ArrayList<Node>();
+		for (TablutMove move : options) {
+			if (!expanded.contains(move.toPacked())) {
+				missing.add(new Node((TablutBoardState) bs.clone(), move));
+			}
+		}
+		root.addChildren(missing.toArray(new Node[missing.size()]));
+	}
+	
+	/**
+	 * Moves the saved tree's root down to the child for a move that was played (ours or the
+	 * opponent's), keeping the visits and scores of that subtree for the next search.
+	 * The tree is dropped if the move was never expanded.
+	 * @param boardState	state after the move
+	 * @param move			move that was played
+	 */
+	public static void advanceRoot(TablutBoardState boardState, Move move) {
+		stopPondering();
+		if (savedRoot == null) {
+			return;
+		}
+		Node next = null;
+		int packedMove = ((TablutMove) move).toPacked();
+		for (Node child : savedRoot.getChildren()) {
+			if (child.getPreviousMove().toPacked() == packedMove) {
+				next = child;
+				break;
+			}
+		}
+		
+		if (next != null && next.getBoardState().getHashKey() == boardState.getHashKey()) {
+			next.setParent(null);
+			savedRoot = next;
+		} else {
+			savedRoot = null;
+		}
+	}
+	
+	/**
+	 * Forgets the saved tree, e.g. once the game is over
+	 */
+	public static void discardTree() {
+		stopPondering();
+		savedRoot = null;
+	}
+	
+	/**
+	 * Keeps running iterations on the saved tree on a background thread while the opponent
+	 * thinks, so our next search starts from a warmed tree. Runs until stopPondering is called,
+	 * or until one of the safety caps is reached if the opponent never moves.
+	 */
+	public static void startPondering() {
+		if (!PONDER || savedRoot == null || ponderThread != null || savedRoot.getBoardState().gameOver()) {
+			return;
+		}
+		final Node root = savedRoot;
+		pondering = true;
+		ponderThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final long START_TIME = System.currentTimeMillis();
+				int nodes = 0;
+				while (pondering && nodes < MAX_PONDER_NODES
+						&& System.currentTimeMillis() - START_TIME < MAX_PONDER_MS) {
+					nodes += runIteration(root);
+					Thread.yield();
+				}
+			}
+		}, "ponder");
+		// never keep the client alive or take time from our own search
+		ponderThread.setDaemon(true);
+		ponderThread.setPriority(Thread.MIN_PRIORITY);
+		ponderThread.start();
+	}
+	
+	/**
+	 * Stops the pondering thread, waiting for its current iteration to finish so the tree
+	 * is ours again. Does nothing if not pondering.
+	 */
+	public static void stopPondering() {
+		pondering = false;
+		if (ponderThread == null) {
+			return;
+		}
+		boolean interrupted = false;
+		while (ponderThread.isAlive()) {
+			try {
+				ponderThread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		ponderThread = null;
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Runs a single Monte Carlo iteration on a tree made by createRoot
+	 * @param root	root of the search tree
+	 * @return		number of nodes the iteration added
+	 */
+	static int runIteration(Node root) {
+    	// 1. descent with tree policy (upper confidence trees)
+    	Node selectedLeaf = descendAndGetBestLeaf(root);
+
+    	// 2. roll out with default policy (random simulations)
+    	double winScore = rollOutLeaf(selectedLeaf);
+
+    	// 3. update win scores with backpropagation
+    	backprop(selectedLeaf, winScore);
+    	
+    	// 4. grow tree with selected leaf node
+    	return growSearchTree(selectedLeaf);
+	}
+	
 	/**
 	 * Descent phase of Monte Carlo Tree Search.
 	 * Selects best child node according to UCT recursively until leaf is found
@@ -159,10 +516,14 @@ public class TreeSearch {
 	 * @return		best leaf according to UCT
 	 */
 	private static Node descendAndGetBestLeaf(Node node) {
+		if (virtualLoss != 0) {
+			node.addResults(-virtualLoss, virtualLoss);
+		}
 		Node selected = node;
 		List<Node> children = node.getChildren();
 		if (children.size() > 0) {
-			Node bestChildNode = node.getBestChild();
+			// with virtual losses every child may score below 0, so don't fall back to the first
+			Node bestChildNode = (virtualLoss != 0) ? node.getBestChild(Double.NEGATIVE_INFINITY) : node.getBestChild();
 			return descendAndGetBestLeaf(bestChildNode);
 		}
 		return selected;
@@ -172,27 +533,33 @@ public class TreeSearch {
 	 * Growth phase of Monte Carlo Tree Search
 	 * Grows tree by all children of single parameter node
 	 * @param node		node to be expanded
+	 * @return			number of nodes added
 	 */
-	private static void growSearchTree(Node node) {
+	private static int growSearchTree(Node node) {
 		int depth = node.getDepth();
 		
-		if (depth < MAX_TREE_DEPTH) {
+		// another search thread may have expanded it already, or be expanding it
+		if (depth < MAX_TREE_DEPTH && node.getChildren().isEmpty() && node.claimExpansion()) {
 			TablutBoardState bs = node.getBoardState();
 			List<TablutMove> options = bs.getAllLegalMoves();
-			Collections.shuffle(options);
-			int childCount = 0;
+			Collections.shuffle(options, TablutBoardState.getThreadRandom());
+			List<Node> children = new ArrayList<Node>(options.size());
 			for (TablutMove move : options) {
 				// avoid redundant moves
 				// only choose 50 children randomly in deeper levels to limit computation time
-				if (isNotRedundantMove(node, move) && (depth < 2 || childCount < MAX_CHILDREN_TO_EXPAND)) {
-			    	childCount++;
+				if (isNotRedundantMove(node, move) && (depth < 2 || children.size() < MAX_CHILDREN_TO_EXPAND)) {
 					TablutBoardState cloneBS = (TablutBoardState) bs.clone();
 
 					Node child = new Node(cloneBS, move);
-					node.addChild(child);
+					children.add(child);
 				}
 			}
+			if (!children.isEmpty()) {
+				node.setChildren(children.toArray(new Node[children.size()]));
+			}
+			return children.size();
 		}
+		return 0;
 	}
 	
 	/**
@@ -202,24 +569,18 @@ public class TreeSearch {
 	 * @return
 	 */
 	private static double rollOutAndGetWinScore(Node node) {
+		// work on a copy only, other search threads may be reading the node's state
 		TablutBoardState cloneBS = (TablutBoardState) node.getBoardState().clone();
-		int initialTurnNumber = cloneBS.getTurnNumber();
 		
-		// the getRandomMove() extremely rarely throws an error for me, so I try/catch so that
-		// random move isn't generated just because a rollout fails...
-		try {
-			Move randomMove = cloneBS.getRandomMove();
-			
-			// keep simulating until cap of turns reached or no winner has been found
-			while (cloneBS.getWinner() == Board.NOBODY && (cloneBS.getTurnNumber()-initialTurnNumber) < MAX_SIMULATION_TURNS) {
-				randomMove = cloneBS.getRandomMove();
-				cloneBS.processMove((TablutMove) randomMove);
-			}
-		} catch(IllegalArgumentException e) {
-			// random move generation failed!
-			// do nothing and chalk it up to a draw
+		// no need to simulate when the Swedes are to move and the king has an open line to a corner
+		if (cloneBS.getWinner() == Board.NOBODY && cloneBS.getTurnPlayer() == TablutBoardState.SWEDE
+				&& cloneBS.getKingEscapeDistance() == 1) {
+			return (player_id == TablutBoardState.SWEDE) ? 1 : -1;
 		}
 		
+		// keep simulating until cap of turns reached or no winner has been found
+		cloneBS.playRandomGame(MAX_SIMULATION_TURNS);
+		
 		// 1 for win, 0 for draw, -1 for loss,
 		if (cloneBS.getWinner() == player_id) {
 			return 1;
@@ -230,6 +591,45 @@ public class TreeSearch {
 		}
 	}
 	
+	/**
+	 * Rolls out from the leaf once, or LEAF_ROLLOUTS times in parallel when leaf parallelism
+	 * is on, in which case the win score is the average over all the rollouts.
+	 * @param node	leaf to roll out from
+	 * @return		win score between -1 and 1
+	 */
+	private static double rollOutLeaf(Node node) {
+		if (rolloutPool == null) {
+			return rollOutAndGetWinScore(node);
+		}
+		return rolloutPool.invoke(new LeafRollouts(node, LEAF_ROLLOUTS)) / LEAF_ROLLOUTS;
+	}
+	
+	/**
+	 * Sums the win scores of a number of rollouts from the same leaf, splitting them in
+	 * halves across the pool. Each rollout plays on its own copy of the leaf's state.
+	 */
+	private static final class LeafRollouts extends RecursiveTask<Double> {
+		private static final long serialVersionUID = 1L;
+		private final Node node;
+		private final int count;
+		
+		LeafRollouts(Node node, int count) {
+			this.node = node;
+			this.count = count;
+		}
+		
+		@Override
+		protected Double compute() {
+			if (count == 1) {
+				return rollOutAndGetWinScore(node);
+			}
+			LeafRollouts half = new LeafRollouts(node, count / 2);
+			half.fork();
+			double winScore = new LeafRollouts(node, count - count / 2).compute();
+			return winScore + half.join();
+		}
+	}
+	
 	/**
 	 * Update phase of Monte Carlo Tree Search
 	 * Backpropagates win score and number of visits recursively to parent nodes 
@@ -239,7 +639,8 @@ public class TreeSearch {
 	private static void backprop(Node node, double winScore) {
 		Node currentNode = node;
 		
-		currentNode.addResult(winScore);
+		// also takes back the virtual loss given on the way down
+		currentNode.addResults(winScore + virtualLoss, 1 - virtualLoss);
 		
 		if (!currentNode.isRoot()) {
 			backprop(currentNode.getParent(), winScore);
@@ -1,6 +1,5 @@
 package tablut;
 
-import java.util.List;
 import java.util.Random;
 
 import boardgame.Move;
@@ -21,31 +20,32 @@ public class GreedyTablutPlayer extends TablutPlayer {
 
     @Override
     public Move chooseMove(TablutBoardState bs) {
-        List<TablutMove> options = bs.getAllLegalMoves();
+        int[] options = new int[TablutBoardState.MAX_MOVES];
+        int numberOfOptions = bs.getAllLegalMoves(options);
 
         // Set an initial move as some random one.
-        TablutMove bestMove = options.get(rand.nextInt(options.size()));
+        TablutMove bestMove = TablutMove.unpack(options[rand.nextInt(numberOfOptions)]);
 
         // This greedy player seeks to capture as many opponents as possible.
         int opponent = bs.getOpponent();
         int minNumberOfOpponentPieces = bs.getNumberPlayerPieces(opponent);
         boolean moveCaptures = false;
 
-        // Iterate over move options and evaluate them.
-        for (TablutMove move : options) {
-            // To evaluate a move, clone the boardState so that we can do modifications on
-            // it.
-            TablutBoardState cloneBS = (TablutBoardState) bs.clone();
-
-            // Process that move, as if we actually made it happen.
-            cloneBS.processMove(move);
+        // Evaluate all the options in one go. The board plays each move and takes it
+        // back, filling in arrays of what it led to, which is much cheaper than cloning
+        // for every option.
+        TablutBoardState.ChildBatch children = new TablutBoardState.ChildBatch();
+        bs.evaluateChildren(options, numberOfOptions, children);
+        int[] opponentPieces = (opponent == TablutBoardState.SWEDE) ? children.swedePieces : children.muscovitePieces;
 
+        // Iterate over move options and evaluate them.
+        for (int i = 0; i < numberOfOptions; i++) {
             // Check how many opponent pieces there are now, maybe we captured some!
-            int newNumberOfOpponentPieces = cloneBS.getNumberPlayerPieces(opponent);
+            int newNumberOfOpponentPieces = opponentPieces[i];
 
             // If this move caused some capturing to happen, then do it! Greedy!
             if (newNumberOfOpponentPieces < minNumberOfOpponentPieces) {
-                bestMove = move;
+                bestMove = TablutMove.unpack(options[i]);
                 minNumberOfOpponentPieces = newNumberOfOpponentPieces;
                 moveCaptures = true;
             }
@@ -56,8 +56,8 @@ public class GreedyTablutPlayer extends TablutPlayer {
              * white can move to a corner, since if either of these things happen then a
              * winner will be set.
              */
-            if (cloneBS.getWinner() == player_id) {
-                bestMove = move;
+            if (children.winners[i] == player_id) {
+                bestMove = TablutMove.unpack(options[i]);
                 moveCaptures = true;
                 break;
             }
@@ -0,0 +1,236 @@
+package tablut;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Perft (performance test) for TablutBoardState: walks the full game tree to a
+ * fixed depth and counts, for every ply, the positions reached, the moves that
+ * captured something and the moves that won the game. Comparing against the
+ * reference counts in data/perft.txt checks that move generation and move
+ * processing still play the same game, and the nodes per second give a fixed
+ * workload to measure their speed.
+ *
+ * Usage: java -cp bin tablut.Perft [depth] [threads] [positions file]
+ *
+ * With more than one thread, the subtrees below the root moves are searched in
+ * parallel on a ForkJoinPool.
+ */
+public class Perft {
+    public static final String DEFAULT_POSITIONS_FILE = "data/perft.txt";
+
+    /** Counts per ply; index d holds the totals for positions d moves from the root. */
+    public static class Result {
+        public final long[] nodes;
+        public final long[] captures;
+        public final long[] wins;
+
+        Result(int depth) {
+            nodes = new long[depth + 1];
+            captures = new long[depth + 1];
+            wins = new long[depth + 1];
+        }
+
+        // Adds the counts of a subtree rooted "offset" plies below our root.
+        void add(Result other, int offset) {
+            for (int d = 0; d + offset < nodes.length && d < other.nodes.length; d++) {
+                nodes[d + offset] += other.nodes[d];
+                captures[d + offset] += other.captures[d];
+                wins[d + offset] += other.wins[d];
+            }
+        }
+
+        public long totalNodes() {
+            long total = 0;
+            for (long n : nodes) {
+                total += n;
+            }
+            return total;
+        }
+    }
+
+    /** Runs perft on the calling thread. The state is left as it was given. */
+    public static Result perft(TablutBoardState state, int depth) {
+        Result result = new Result(depth);
+        if (depth > 0) {
+            search(state, 0, depth, new int[depth][TablutBoardState.MAX_MOVES], result);
+        }
+        return result;
+    }
+
+    /** Runs perft with each root move's subtree as a separate task on the pool. */
+    public static Result perft(TablutBoardState state, int depth, ForkJoinPool pool) {
+        if (depth < 2 || state.gameOver()) {
+            return perft(state, depth);
+        }
+        return pool.invoke(new RootTask(state, depth));
+    }
+
+    private static void search(TablutBoardState state, int ply, int depth, int[][] buffers, Result result) {
+        int[] moves = buffers[ply];
+        int count = state.getAllLegalMoves(moves);
+        int opponent = state.getOpponent();
+        for (int i = 0; i < count; i++) {
+            int opponentPieces = state.getNumberPlayerPieces(opponent);
+            long undo = state.applyTrustedMove(moves[i]);
+            countNode(state, ply + 1, opponent, opponentPieces, result);
+            if (ply + 1 < depth && !state.gameOver()) {
+                search(state, ply + 1, depth, buffers, result);
+            }
+            state.undoMove(undo);
+        }
+    }
+
+    private static void countNode(TablutBoardState state, int ply, int opponent, int opponentPieces, Result result) {
+        result.nodes[ply]++;
+        if (state.getNumberPlayerPieces(opponent) < opponentPieces) {
+            result.captures[ply]++;
+        }
+        int winner = state.getWinner();
+        if (winner == TablutBoardState.MUSCOVITE || winner == TablutBoardState.SWEDE) {
+            result.wins[ply]++;
+        }
+    }
+
+    private static class RootTask extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+        private final TablutBoardState state;
+        private final int depth;
+
+        RootTask(TablutBoardState state, int depth) {
+            this.state = state;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Result compute() {
+            Result result = new Result(depth);
+            int[] moves = new int[TablutBoardState.MAX_MOVES];
+            int count = state.getAllLegalMoves(moves);
+            int opponent = state.getOpponent();
+            List<SubtreeTask> subtrees = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                TablutBoardState child = (TablutBoardState) state.clone();
+                int opponentPieces = child.getNumberPlayerPieces(opponent);
+                child.processTrustedMove(moves[i]);
+                countNode(child, 1, opponent, opponentPieces, result);
+                if (!child.gameOver()) {
+                    subtrees.add(new SubtreeTask(child, depth - 1));
+                }
+            }
+            invokeAll(subtrees);
+            for (SubtreeTask subtree : subtrees) {
+                result.add(subtree.join(), 1);
+            }
+            return result;
+        }
+    }
+
+    private static class SubtreeTask extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+        private final TablutBoardState state;
+        private final int depth;
+
+        SubtreeTask(TablutBoardState state, int depth) {
+            this.state = state;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Result compute() {
+            return perft(state, depth);
+        }
+    }
+
+    /**
+     * Builds a position by playing the given moves from the starting position. Moves
+     * are transportable strings separated by commas; an empty string is the start.
+     */
+    public static TablutBoardState fromMoves(String moves) {
+        TablutBoardState state = new TablutBoardState();
+        for (String move : moves.split(",")) {
+            if (!move.trim().isEmpty()) {
+                state.processMove(new TablutMove(move.trim()));
+            }
+        }
+        return state;
+    }
+
+    /*
+     * Reads reference counts. Each line is "name | moves | depth | nodes | captures |
+     * wins", with the moves as for fromMoves. Lines starting with # are comments.
+     */
+    private static Map<String, List<long[]>> readReferences(String fileName, Map<String, String> positions)
+            throws IOException {
+        Map<String, List<long[]>> references = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] fields = line.split("\\|");
+                String name = fields[0].trim();
+                positions.put(name, fields[1].trim());
+                if (!references.containsKey(name))
+                    references.put(name, new ArrayList<long[]>());
+                references.get(name).add(new long[] { Long.parseLong(fields[2].trim()),
+                        Long.parseLong(fields[3].trim()), Long.parseLong(fields[4].trim()),
+                        Long.parseLong(fields[5].trim()) });
+            }
+        }
+        return references;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int maxDepth = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+        String fileName = (args.length > 2) ? args[2] : DEFAULT_POSITIONS_FILE;
+
+        Map<String, String> positions = new LinkedHashMap<>();
+        Map<String, List<long[]>> references = readReferences(fileName, positions);
+        ForkJoinPool pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+        boolean allMatch = true;
+
+        for (Map.Entry<String, String> position : positions.entrySet()) {
+            TablutBoardState state = fromMoves(position.getValue());
+            System.out.println(String.format("== %s (turn %d, %s to move)", position.getKey(), state.getTurnNumber(),
+                    TablutMove.getPlayerName(state.getTurnPlayer())));
+
+            long start = System.nanoTime();
+            Result result = (pool != null) ? perft(state, maxDepth, pool) : perft(state, maxDepth);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.println(String.format("%5s %14s %12s %10s", "depth", "nodes", "captures", "wins"));
+            for (int d = 1; d <= maxDepth; d++) {
+                String status = "";
+                for (long[] reference : references.get(position.getKey())) {
+                    if (reference[0] == d) {
+                        boolean match = reference[1] == result.nodes[d] && reference[2] == result.captures[d]
+                                && reference[3] == result.wins[d];
+                        status = match ? "  ok" : String.format("  MISMATCH, expected %d %d %d", reference[1],
+                                reference[2], reference[3]);
+                        allMatch &= match;
+                    }
+                }
+                System.out.println(String.format("%5d %14d %12d %10d%s", d, result.nodes[d], result.captures[d],
+                        result.wins[d], status));
+            }
+            System.out.println(String.format("%d nodes in %.3f s, %.0f nodes/s%n", result.totalNodes(), seconds,
+                    result.totalNodes() / seconds));
+        }
+        if (pool != null) {
+            pool.shutdown();
+        }
+        if (!allMatch) {
+            System.out.println("Perft counts do not match the reference counts in " + fileName);
+            System.exit(1);
+        }
+    }
+}
@@ -7,6 +7,15 @@ import boardgame.Move;
 
 public class TablutBoard extends Board {
 
+    /*
+     * Set -Dtablut.adjudicateRepetitions=true to call the game a draw as soon as a
+     * position comes up for the third time, rather than playing on to MAX_TURNS.
+     * Only the last few plies are looked at (see TablutBoardState.getRepetitionCount),
+     * so this catches short back-and-forth cycles, not every threefold repetition.
+     */
+    private static final boolean ADJUDICATE_REPETITIONS = Boolean.getBoolean("tablut.adjudicateRepetitions");
+    private static final int ADJUDICATED_REPETITIONS = 2; // earlier occurrences of the position
+
     private TablutBoardState boardState;
 
     public TablutBoard() {
@@ -37,6 +46,10 @@ public class TablutBoard extends Board {
     @Override
     public void move(Move m) throws IllegalArgumentException {
         boardState.processMove((TablutMove) m);
+        if (ADJUDICATE_REPETITIONS && boardState.getWinner() == Board.NOBODY
+                && boardState.getRepetitionCount() >= ADJUDICATED_REPETITIONS) {
+            boardState.setWinner(Board.DRAW);
+        }
     }
 
     @Override
@@ -66,7 +79,7 @@ public class TablutBoard extends Board {
 
     @Override
     public Move parseMove(String str) throws NumberFormatException, IllegalArgumentException {
-        return new TablutMove(str);
+        return TablutMove.parse(str);
     }
 
     @Override
@@ -5,14 +5,15 @@ import boardgame.BoardState;
 import boardgame.Move;
 import coordinates.Coord;
 import coordinates.Coordinates;
-import coordinates.Coordinates.CoordinateDoesNotExistException;
 import tablut.TablutMove;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
 
 public class TablutBoardState extends BoardState {
@@ -23,13 +24,14 @@ public class TablutBoardState extends BoardState {
     public static final int MUSCOVITE = 0;
     public static final int BOARD_SIZE = 9; // 9x9 board for tablut
     public static final int MAX_TURNS = 49;
+    public static final int MAX_PIECES = 16; // per side
+    public static final int MAX_MOVES = MAX_PIECES * 16; // each piece has at most 16 moves
 
     public static enum Piece {
         BLACK, WHITE, KING, EMPTY
     }
 
     private static HashMap<Piece, String> piecesToSymbols;
-    private static HashMap<Piece, Integer> piecesToPlayer;
     static {
         piecesToSymbols = new HashMap<>();
         piecesToSymbols.put(Piece.BLACK, "B");
@@ -37,85 +39,166 @@ public class TablutBoardState extends BoardState {
         piecesToSymbols.put(Piece.KING, "K");
         piecesToSymbols.put(Piece.EMPTY, " ");
 
-        piecesToPlayer = new HashMap<>();
-        piecesToPlayer.put(Piece.BLACK, MUSCOVITE);
-        piecesToPlayer.put(Piece.WHITE, SWEDE);
-        piecesToPlayer.put(Piece.KING, SWEDE);
-        piecesToPlayer.put(Piece.EMPTY, ILLEGAL);
-
         Coordinates.setAllCoordinates(BOARD_SIZE);
     }
 
     private static int FIRST_PLAYER = 0; // first player white, second player black
 
+    /*
+     * Random moves are drawn from one RNG per thread, shared by every state on that
+     * thread, rather than each state (and each clone) carrying its own.
+     */
+    private static final ThreadLocal<Random> threadRandom = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    // Per-thread scratch space for random move selection, see randomLegalMove.
+    private static final ThreadLocal<int[]> playoutScratch = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[MAX_PIECES];
+        }
+    };
+
+    // Per-thread BFS queue for computeKingEscapeDistances.
+    private static final ThreadLocal<int[]> escapeFrontier = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[NUM_SQUARES];
+        }
+    };
+
+    // Set -Dtablut.verifyMoves=true to validate trusted moves too, for debugging.
+    private static final boolean VERIFY_TRUSTED_MOVES = Boolean.getBoolean("tablut.verifyMoves");
+
+    /*
+     * Squares are numbered x * BOARD_SIZE + y. The 81 squares don't fit in a single
+     * long, so every mask is split into two words: word 0 holds squares 0-63 and
+     * word 1 holds squares 64-80. Since Java only uses the low 6 bits of a long
+     * shift, the bit for a square is always (1L << square) within its word.
+     */
+    private static final int NUM_SQUARES = BOARD_SIZE * BOARD_SIZE;
+    private static final int CENTER_SQUARE = 4 * BOARD_SIZE + 4;
+    private static final int NO_SQUARE = -1;
+    private static final int NO_MOVE = -1;
+    private static final int NO_ESCAPE_CACHE = -2;
+    private static final int[] CORNER_SQUARES = { 0, 8, 72, 80 }; // same order as Coordinates.getCorners
+    private static final int MOBILE = 4; // index in bits of the mobile mask, see refreshMobility
+
+    /*
+     * Position history: the hash key of the position at every ply (half move) is
+     * kept in a ring of HISTORY_SIZE slots in bits, starting at index HISTORY, so a
+     * clone copies it along with the board. A repetition is looked for only among
+     * the last REPETITION_PLIES positions, and never before the last capture since
+     * a position with more pieces can't come back. Keeping the ring larger than
+     * that lets undoMove leave the history intact for searches up to
+     * HISTORY_SIZE - REPETITION_PLIES moves deep; deeper apply/undo chains overwrite
+     * slots that are still looked at.
+     */
+    private static final int HISTORY = 6;
+    private static final int HISTORY_SIZE = 16;
+    private static final int REPETITION_PLIES = 8;
+
+    // Corners and center, where only the king may stop.
+    private static final long[] RESTRICTED_SQUARES = { 1L | (1L << 8) | (1L << CENTER_SQUARE),
+            (1L << (72 - 64)) | (1L << (80 - 64)) };
+
+    /*
+     * Zobrist keys: one random 64-bit key per (piece, square) plus one for the
+     * swedes being on move. A position's hash is the xor of the keys that apply,
+     * so it can be updated piece by piece as moves are made.
+     */
+    private static final long[][] ZOBRIST_PIECES = new long[3][NUM_SQUARES]; // indexed by Piece ordinal
+    private static final long ZOBRIST_SWEDE_TO_MOVE;
+    static {
+        Random zobristRand = new Random(1632);
+        for (long[] pieceKeys : ZOBRIST_PIECES) {
+            for (int i = 0; i < NUM_SQUARES; i++) {
+                pieceKeys[i] = zobristRand.nextLong();
+            }
+        }
+        ZOBRIST_SWEDE_TO_MOVE = zobristRand.nextLong();
+    }
+
     /* These are our data storage things. */
-    private Piece[][] board = new Piece[BOARD_SIZE][BOARD_SIZE];
-    private HashSet<Coord> muscoviteCoords; // we can use hashsets because
-    private HashSet<Coord> swedeCoords;
-    private Coord kingPosition;
-    private Random rand = new Random(1917);
+    private long[] bits = new long[HISTORY + HISTORY_SIZE]; // [black lo, black hi, white lo, white hi,
+                                                            // mobile lo, mobile hi, history...]
+    private int kingSquare;
+    private long hashKey;
     private int turnPlayer;
     private int turnNumber = 0;
     private int winner = Board.NOBODY;
+    private int reversiblePlies; // plies since the last capture, at most REPETITION_PLIES
+
+    /*
+     * Cached king escape distances, see getKingEscapeDistance. The cache stays good
+     * until a square the search looked at changes: escapeSquares0/1 hold the squares
+     * the king could get to plus the pieces that stopped it, escapeOccupancy0/1 which
+     * of them were occupied, and escapeKingSquare where the king started. They are
+     * written one at a time, so a state read by several threads must not use them.
+     */
+    private int escapeDistances; // 8 bits per corner, in the order of CORNER_SQUARES
+    private int escapeKingSquare = NO_ESCAPE_CACHE;
+    private long escapeSquares0;
+    private long escapeSquares1;
+    private long escapeOccupancy0;
+    private long escapeOccupancy1;
 
     // Initial Board State creation. The genesis constructor.
     public TablutBoardState() {
         super();
 
-        // Initialize to empty
-        for (Coord c : Coordinates.iterCoordinates()) {
-            board[c.x][c.y] = Piece.EMPTY;
-        }
-
         /* We now place the pieces on the board */
         int middlePosition = 4;
-        board[middlePosition][middlePosition] = Piece.KING;
+        kingSquare = square(middlePosition, middlePosition);
+        hashKey = ZOBRIST_PIECES[Piece.KING.ordinal()][kingSquare];
 
         // Blacks. (Muscovites)
         List<Integer> blackSidePieces = Arrays.asList(3, 4, 5);
         List<Integer> axes = Arrays.asList(0, 8);
         for (Integer axis : axes) {
             for (Integer position : blackSidePieces) {
-                board[position][axis] = Piece.BLACK;
-                board[axis][position] = Piece.BLACK;
+                addPiece(MUSCOVITE, square(position, axis));
+                addPiece(MUSCOVITE, square(axis, position));
             }
         }
         axes = Arrays.asList(1, 7);
         for (Integer axis : axes) {
-            board[axis][middlePosition] = Piece.BLACK;
-            board[middlePosition][axis] = Piece.BLACK;
+            addPiece(MUSCOVITE, square(axis, middlePosition));
+            addPiece(MUSCOVITE, square(middlePosition, axis));
         }
         // Whites. (Swedes)
         axes = Arrays.asList(2, 3, 5, 6);
         for (Integer axis : axes) {
-            board[axis][middlePosition] = Piece.WHITE;
-            board[middlePosition][axis] = Piece.WHITE;
+            addPiece(SWEDE, square(axis, middlePosition));
+            addPiece(SWEDE, square(middlePosition, axis));
         }
-        // Update the lists storing the coordinates of all the pieces.
-        swedeCoords = new HashSet<>();
-        muscoviteCoords = new HashSet<>();
-        for (Coord c : Coordinates.iterCoordinates()) {
-            Piece piece = getPieceAt(c);
-            if (piecesToPlayer.get(piece) == SWEDE) {
-                swedeCoords.add(c);
-            } else if (piecesToPlayer.get(piece) == MUSCOVITE) {
-                muscoviteCoords.add(c);
-            }
+        for (int square = 0; square < NUM_SQUARES; square++) {
+            refreshMobility(square);
         }
-        kingPosition = Coordinates.get(4, 4);
     }
 
-    /* The below method is for the purpose of cloning. */
+    /*
+     * The below method is for the purpose of cloning. All of the board lives in the
+     * flat bits array, so this is one array copy plus a few scalars.
+     */
     private TablutBoardState(TablutBoardState boardState) {
-        for (Coord c : Coordinates.iterCoordinates()) {
-            board[c.x][c.y] = boardState.board[c.x][c.y];
-        }
-        swedeCoords = new HashSet<>(boardState.swedeCoords);
-        muscoviteCoords = new HashSet<>(boardState.muscoviteCoords);
-        kingPosition = boardState.kingPosition;
+        System.arraycopy(boardState.bits, 0, bits, 0, bits.length);
+        kingSquare = boardState.kingSquare;
+        hashKey = boardState.hashKey;
         turnPlayer = boardState.turnPlayer;
         turnNumber = boardState.turnNumber;
-        winner = boardState.getWinner(); 
+        winner = boardState.winner;
+        reversiblePlies = boardState.reversiblePlies;
+        escapeDistances = boardState.escapeDistances;
+        escapeKingSquare = boardState.escapeKingSquare;
+        escapeSquares0 = boardState.escapeSquares0;
+        escapeSquares1 = boardState.escapeSquares1;
+        escapeOccupancy0 = boardState.escapeOccupancy0;
+        escapeOccupancy1 = boardState.escapeOccupancy1;
     }
 
     @Override
@@ -123,6 +206,64 @@ public class TablutBoardState extends BoardState {
         return new TablutBoardState(this);
     }
 
+    /*
+     * Binary form, SERIALIZED_SIZE bytes in the buffer's byte order: for muscovites
+     * then swedes, the low placement word as a long and the high one as an int,
+     * then the king square (-1 once captured), player to move, turn number as a
+     * short and winner as an int. Mobility and hash key are rebuilt on reading.
+     */
+    public static final int SERIALIZED_SIZE = 2 * (8 + 4) + 1 + 1 + 2 + 4;
+    private static final long HIGH_WORD_SQUARES = (1L << (NUM_SQUARES - 64)) - 1;
+
+    /** Writes this position at the buffer's position, advancing it by SERIALIZED_SIZE. */
+    public void writeTo(ByteBuffer buffer) {
+        for (int player = MUSCOVITE; player <= SWEDE; player++) {
+            buffer.putLong(bits[player << 1]);
+            buffer.putInt((int) bits[(player << 1) | 1]);
+        }
+        buffer.put((byte) kingSquare);
+        buffer.put((byte) turnPlayer);
+        buffer.putShort((short) turnNumber);
+        buffer.putInt(winner);
+    }
+
+    /**
+     * Reads a position written by writeTo, advancing the buffer by SERIALIZED_SIZE.
+     * Throws IllegalArgumentException if the bytes don't describe a board.
+     */
+    public static TablutBoardState readFrom(ByteBuffer buffer) {
+        return new TablutBoardState(buffer);
+    }
+
+    private TablutBoardState(ByteBuffer buffer) {
+        for (int player = MUSCOVITE; player <= SWEDE; player++) {
+            bits[player << 1] = buffer.getLong();
+            bits[(player << 1) | 1] = buffer.getInt() & 0xFFFFFFFFL;
+        }
+        kingSquare = buffer.get();
+        turnPlayer = buffer.get();
+        turnNumber = buffer.getShort();
+        winner = buffer.getInt();
+
+        if (((bits[1] | bits[3]) & ~HIGH_WORD_SQUARES) != 0 || (bits[0] & bits[2]) != 0 || (bits[1] & bits[3]) != 0
+                || kingSquare < NO_SQUARE || kingSquare >= NUM_SQUARES
+                || (kingSquare != NO_SQUARE && (hasSoldier(MUSCOVITE, kingSquare) || hasSoldier(SWEDE, kingSquare)))
+                || (turnPlayer != MUSCOVITE && turnPlayer != SWEDE) || turnNumber < 0) {
+            throw new IllegalArgumentException("Received an uninterpretable binary form for a TablutBoardState.");
+        }
+
+        hashKey = (turnPlayer == SWEDE) ? ZOBRIST_SWEDE_TO_MOVE : 0;
+        for (int square = 0; square < NUM_SQUARES; square++) {
+            if (hasSoldier(MUSCOVITE, square))
+                hashKey ^= ZOBRIST_PIECES[MUSCOVITE][square];
+            else if (hasSoldier(SWEDE, square))
+                hashKey ^= ZOBRIST_PIECES[SWEDE][square];
+            refreshMobility(square);
+        }
+        if (kingSquare != NO_SQUARE)
+            hashKey ^= ZOBRIST_PIECES[Piece.KING.ordinal()][kingSquare];
+    }
+
     /**
      * Here and below are for dealing with moves, and processing captures.
      */
@@ -130,72 +271,186 @@ public class TablutBoardState extends BoardState {
         if (!isLegal(m)) { // isLegal checks if the player is the correct player.
             throw new IllegalArgumentException("Invalid move for current context. " + "Move: " + m.toPrettyString());
         }
+        Coord oldPos = m.getStartPosition();
+        Coord newPos = m.getEndPosition();
+        movePiece(square(oldPos.x, oldPos.y), square(newPos.x, newPos.y));
+    }
 
-        // Process move...
+    /**
+     * Reversible version of processMove for search. The move is validated and
+     * played in place exactly as processMove would, and a compact undo record is
+     * returned. Passing that record to undoMove restores the state bit-exactly.
+     * Moves must be undone in the reverse order they were applied.
+     */
+    public long applyMove(TablutMove m) throws IllegalArgumentException {
+        if (!isLegal(m)) {
+            throw new IllegalArgumentException("Invalid move for current context. " + "Move: " + m.toPrettyString());
+        }
         Coord oldPos = m.getStartPosition();
         Coord newPos = m.getEndPosition();
-        Piece movingPiece = getPieceAt(oldPos);
+        return movePiece(square(oldPos.x, oldPos.y), square(newPos.x, newPos.y));
+    }
 
-        // Get memory address to the list we are working on, then update it.
-        HashSet<Coord> playerCoordSet = getPlayerCoordSet();
-        playerCoordSet.remove(oldPos); // We can do this remove
-        playerCoordSet.add(newPos);
-        if (movingPiece == Piece.KING)
-            kingPosition = newPos;
+    /**
+     * Fast path of processMove for search code. The move is trusted to be legal for
+     * the turn player, e.g. because it just came from getAllLegalMoves, so it is
+     * played without validation. Run with -Dtablut.verifyMoves=true to check every
+     * trusted move anyway. The server always uses the validated processMove.
+     */
+    public void processTrustedMove(TablutMove m) {
+        applyTrustedMove(m.toPacked());
+    }
 
-        // Now update board.
-        board[oldPos.x][oldPos.y] = Piece.EMPTY;
-        board[newPos.x][newPos.y] = movingPiece;
+    // Same as processTrustedMove(TablutMove), for packed moves from getAllLegalMoves(int[]).
+    public void processTrustedMove(int packedMove) {
+        applyTrustedMove(packedMove);
+    }
 
-        // Now check if a capture occurred. Only a piece next to the new position could
-        // have been captured.
-        List<Coord> captured = new ArrayList<>();
-        for (Coord enemy : Coordinates.getNeighbors(newPos)) {
-            if (isOpponentPieceAt(enemy)) {
-                boolean canCapture = true;
-
-                // If the opponent is a king, we need to check if its at the center or the
-                // neighbors of center.
-                // If it is, then it can only be captured on all 4 sides.
-                if (getPieceAt(enemy) == Piece.KING && Coordinates.isCenterOrNeighborCenter(kingPosition)) {
-                    for (Coord possibleAlly : Coordinates.getNeighbors(enemy)) {
-                        if (getPieceAt(possibleAlly) != Piece.BLACK && !Coordinates.isCenter(possibleAlly)) {
-                            canCapture = false;
-                            break;
-                        }
-                    }
-                } else { // Otherwise, check for the normal, sandwich-based capture rule.
-                    try {
-                        Coord sandwichCord = Coordinates.getSandwichCoord(newPos, enemy);
-                        canCapture = canCaptureWithCoord(sandwichCord);
-                    } catch (CoordinateDoesNotExistException e) {
-                        canCapture = false;
-                    }
-                }
-                if (canCapture) {
-                    captured.add(enemy);
-                }
-            }
+    // Trusted version of applyMove, see processTrustedMove.
+    public long applyTrustedMove(TablutMove m) {
+        return applyTrustedMove(m.toPacked());
+    }
+
+    public long applyTrustedMove(int packedMove) {
+        if (VERIFY_TRUSTED_MOVES && !isLegal(TablutMove.unpack(packedMove))) {
+            throw new IllegalArgumentException(
+                    "Trusted move is illegal in this context. Move: " + TablutMove.unpack(packedMove).toPrettyString());
+        }
+        return movePiece(TablutMove.getStartSquare(packedMove), TablutMove.getEndSquare(packedMove));
+    }
+
+    /*
+     * Undo records pack everything movePiece can't infer on the way back into one
+     * long: bits 0-6 from square, 7-13 to square, 14-17 which neighbors of the to
+     * square were captured, 18-24 the king's square before the move (plus one, so
+     * a captured king is 0), 25 the player who moved, 26-29 the old count of
+     * reversible plies and 32-63 the old winner.
+     */
+    private static final int UNDO_TO_SHIFT = 7;
+    private static final int UNDO_CAPTURES_SHIFT = 14;
+    private static final int UNDO_KING_SHIFT = 18;
+    private static final int UNDO_PLAYER_SHIFT = 25;
+    private static final int UNDO_REVERSIBLE_SHIFT = 26;
+    private static final int UNDO_SQUARE_MASK = 0x7F;
+
+    /**
+     * Takes back the move that produced the given undo record, which must be the
+     * last move applied to this state that has not been undone yet.
+     */
+    public void undoMove(long undo) {
+        int from = (int) undo & UNDO_SQUARE_MASK;
+        int to = (int) (undo >>> UNDO_TO_SHIFT) & UNDO_SQUARE_MASK;
+        int captures = (int) (undo >>> UNDO_CAPTURES_SHIFT) & 0xF;
+        int oldKingSquare = ((int) (undo >>> UNDO_KING_SHIFT) & UNDO_SQUARE_MASK) - 1;
+        int mover = (int) (undo >>> UNDO_PLAYER_SHIFT) & 1;
+        int opponent = (mover == MUSCOVITE) ? SWEDE : MUSCOVITE;
+
+        // Put back the king, whether it moved or was captured.
+        int capturedKingSquare = (kingSquare == NO_SQUARE) ? oldKingSquare : NO_SQUARE;
+        if (kingSquare != oldKingSquare) {
+            long[] kingKeys = ZOBRIST_PIECES[Piece.KING.ordinal()];
+            if (kingSquare != NO_SQUARE)
+                hashKey ^= kingKeys[kingSquare];
+            hashKey ^= kingKeys[oldKingSquare];
+            kingSquare = oldKingSquare;
+        }
+        if (from != oldKingSquare) {
+            removePiece(mover, to);
+            addPiece(mover, from);
+        }
+        for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+            if ((captures & (1 << dir)) != 0)
+                addPiece(opponent, Coordinates.getNeighbor(to, dir));
+        }
+        refreshMobility(from, to, captures, capturedKingSquare);
+
+        if (mover != FIRST_PLAYER) {
+            turnNumber -= 1;
+        }
+        turnPlayer = mover;
+        hashKey ^= ZOBRIST_SWEDE_TO_MOVE;
+        reversiblePlies = (int) (undo >>> UNDO_REVERSIBLE_SHIFT) & 0xF;
+        winner = (int) (undo >>> 32);
+    }
+
+    /*
+     * Moves the piece on the board, processes any captures, then passes the turn.
+     * Returns the undo record for the move.
+     */
+    private long movePiece(int from, int to) {
+        long undo = ((long) winner << 32) | (reversiblePlies << UNDO_REVERSIBLE_SHIFT)
+                | (turnPlayer << UNDO_PLAYER_SHIFT) | ((kingSquare + 1) << UNDO_KING_SHIFT) | (to << UNDO_TO_SHIFT) | from;
+        bits[HISTORY + (getPly() % HISTORY_SIZE)] = hashKey;
+
+        // Process move...
+        if (from == kingSquare) {
+            long[] kingKeys = ZOBRIST_PIECES[Piece.KING.ordinal()];
+            hashKey ^= kingKeys[from] ^ kingKeys[to];
+            kingSquare = to;
+        } else {
+            removePiece(turnPlayer, from);
+            addPiece(turnPlayer, to);
         }
 
-        // Slaughter the captured enemies... like pigs. Or more like remove object
-        // memory addresses... same thing.
-        // Note, it is possible for multiple pieces to be captured at once, so we have a
-        // list of them.
-        for (Coord capturedCoord : captured) {
-            if (getPieceAt(capturedCoord) == Piece.KING) {
-                kingPosition = null;
-            } // the king has been captured!
-            getPlayerCoordSet(getOpponent()).remove(capturedCoord);
-            board[capturedCoord.x][capturedCoord.y] = Piece.EMPTY;
+        // Now check if a capture occurred. Only a piece next to the new position could
+        // have been captured. Removing a captured piece right away never changes the
+        // outcome of the other checks, since those only look at the mover's pieces.
+        int opponent = getOpponent();
+        int captures = 0;
+        for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+            if (checkCapture(to, dir, opponent))
+                captures |= 1 << dir;
         }
+        int oldKingSquare = ((int) (undo >>> UNDO_KING_SHIFT) & UNDO_SQUARE_MASK) - 1;
+        refreshMobility(from, to, captures, (kingSquare == NO_SQUARE) ? oldKingSquare : NO_SQUARE);
 
         // Update internal variables, winner, turn player, and turn number.
         if (turnPlayer != FIRST_PLAYER) {
             turnNumber += 1;
         }
-        turnPlayer = getOpponent();
+        turnPlayer = opponent;
+        hashKey ^= ZOBRIST_SWEDE_TO_MOVE;
+        reversiblePlies = (captures != 0) ? 0 : Math.min(reversiblePlies + 1, REPETITION_PLIES);
         updateWinner(); // Check if anybody won and update internal variables if so.
+        return undo | (captures << UNDO_CAPTURES_SHIFT);
+    }
+
+    /*
+     * Captures the opponent piece adjacent to "to" in the given direction, if it has
+     * been sandwiched. Returns true if a soldier was captured; a captured king shows
+     * up in kingSquare.
+     */
+    private boolean checkCapture(int to, int dir, int opponent) {
+        int enemy = Coordinates.getNeighbor(to, dir);
+        if (enemy == Coordinates.OFF_BOARD) {
+            return false;
+        }
+        int sandwich = Coordinates.getSandwichSquare(to, dir);
+        if (enemy == kingSquare && opponent == SWEDE) {
+            // If the king is at the center or the neighbors of center, it can only be
+            // captured on all 4 sides.
+            if (isCenterOrNeighborCenter(enemy)) {
+                for (int d = 0; d < Coordinates.NUM_DIRECTIONS; d++) {
+                    int s = Coordinates.getNeighbor(enemy, d);
+                    if (!hasSoldier(MUSCOVITE, s) && s != CENTER_SQUARE) {
+                        return false;
+                    }
+                }
+                captureKing(); // the king has been captured!
+            } else if (sandwich != Coordinates.OFF_BOARD && canCaptureWithSquare(sandwich)) {
+                captureKing();
+            }
+        } else if (hasSoldier(opponent, enemy) && sandwich != Coordinates.OFF_BOARD && canCaptureWithSquare(sandwich)) {
+            // Slaughter the captured enemies... like pigs.
+            removePiece(opponent, enemy);
+            return true;
+        }
+        return false;
+    }
+
+    private void captureKing() {
+        hashKey ^= ZOBRIST_PIECES[Piece.KING.ordinal()][kingSquare];
+        kingSquare = NO_SQUARE;
     }
 
     // Determines if a player has won by updating internal variable.
@@ -203,14 +458,14 @@ public class TablutBoardState extends BoardState {
         // Check if the king was captured -- MUSCOVITES WIN!
         // Also checking if the swedes even have any legal moves at all. If not, they
         // lose.
-        if (kingPosition == null || !playerHasALegalMove(SWEDE)) {
+        if (kingSquare == NO_SQUARE || !playerHasALegalMove(SWEDE)) {
             winner = MUSCOVITE;
         }
 
         // Check if king is at corner -- SWEDES WIN!
         // Also checking if the muscovites even have any legal moves at all. If not,
         // they lose.
-        else if (Coordinates.isCorner(kingPosition) || !playerHasALegalMove(MUSCOVITE)) {
+        else if (isCorner(kingSquare) || !playerHasALegalMove(MUSCOVITE)) {
             winner = SWEDE;
         }
 
@@ -225,33 +480,307 @@ public class TablutBoardState extends BoardState {
      * desirable to select a subset of moves from specific positions.
      */
     public ArrayList<TablutMove> getAllLegalMoves() {
-        ArrayList<TablutMove> allMoves = new ArrayList<>();
-        for (Coord pos : getPlayerCoordSet()) {
-            allMoves.addAll(getLegalMovesForPosition(pos));
+        int[] packedMoves = new int[MAX_MOVES];
+        return toMoveList(packedMoves, getAllLegalMoves(packedMoves));
+    }
+
+    /**
+     * Allocation-free version of getAllLegalMoves. Writes every legal move for the
+     * turn player into the given buffer as packed ints (see TablutMove.pack) and
+     * returns how many were written. The buffer must hold at least MAX_MOVES moves.
+     */
+    public int getAllLegalMoves(int[] packedMoves) {
+        int count = 0;
+        for (int w = 0; w < 2; w++) {
+            long word = bits[word(turnPlayer, w << 6)];
+            while (word != 0) {
+                count = addLegalMovesFrom((w << 6) | Long.numberOfTrailingZeros(word), false, packedMoves, count);
+                word &= word - 1;
+            }
+        }
+        if (turnPlayer == SWEDE && kingSquare != NO_SQUARE) {
+            count = addLegalMovesFrom(kingSquare, true, packedMoves, count);
         }
-        return allMoves;
+        return count;
     }
 
+    /*
+     * Stages of StagedMoves, in the order they are produced: moves that win at once
+     * (king to a corner, or capturing the king), other captures, other king moves,
+     * then everything else.
+     */
+    public static final int STAGE_WINS = 0;
+    public static final int STAGE_CAPTURES = 1;
+    public static final int STAGE_KING_MOVES = 2;
+    public static final int STAGE_QUIET_MOVES = 3;
+    public static final int STAGE_DONE = 4;
+
     /**
-     * Check if there are any legal moves for the player.
+     * Legal moves in the order search wants to try them, see the STAGE constants.
+     * Each stage is only generated once the previous one has been used up, so a
+     * search that cuts off early never pays for the later stages. Every legal move
+     * comes out exactly once. The state must not change while iterating; one
+     * StagedMoves can be reset onto another state and reused, like a move buffer.
      */
-    private boolean playerHasALegalMove(int player) {
-        for (Coord c : getPlayerCoordSet(player)) {
-            for (Coord neighbor : Coordinates.getNeighbors(c)) {
-                if (coordIsEmpty(neighbor)) {
-                    if (pieceIsAllowedAt(neighbor, getPieceAt(c))) {
-                        return true;
-                    }
-                    // Need another convoluted check just in case it is the center.
-                    if (Coordinates.isCenter(neighbor)) {
-                        int xDiff = neighbor.x - c.x;
-                        int yDiff = neighbor.y - c.y;
-                        if (coordIsEmpty(Coordinates.get(neighbor.x + xDiff, neighbor.y + yDiff)))
-                            return true;
-                    }
+    public static final class StagedMoves {
+        private final int[] moves = new int[MAX_MOVES];
+        private final long[] targets = new long[2]; // scratch mask for addCaptures
+        private TablutBoardState state;
+        private int stage;
+        private int count;
+        private int next;
+
+        public StagedMoves reset(TablutBoardState state) {
+            this.state = state;
+            stage = -1;
+            count = 0;
+            next = 0;
+            return this;
+        }
+
+        public boolean hasNext() {
+            while (next == count && stage < STAGE_DONE) {
+                stage++;
+                next = 0;
+                count = (stage < STAGE_DONE) ? state.addStagedMoves(stage, moves, targets) : 0;
+            }
+            return next < count;
+        }
+
+        // Next move, packed as by TablutMove.pack.
+        public int next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return moves[next++];
+        }
+
+        // Stage of the move last returned by next.
+        public int getStage() {
+            return stage;
+        }
+    }
+
+    public StagedMoves getStagedMoves() {
+        return new StagedMoves().reset(this);
+    }
+
+    /**
+     * What each of a batch of moves leads to, one primitive array per property with
+     * index i describing the child reached by moves[i]; see evaluateChildren. Square
+     * values are numbered x * BOARD_SIZE + y, with -1 for a captured king, and
+     * captures holds one bit per direction from the move's end square (in the order
+     * of Coordinates.NEG_X, NEG_Y, POS_X, POS_Y) for each soldier taken there.
+     */
+    public static final class ChildBatch {
+        public final int[] moves;
+        public final int[] muscovitePieces;
+        public final int[] swedePieces;
+        public final int[] winners;
+        public final int[] kingSquares;
+        public final int[] captures;
+        public final long[] hashKeys;
+        private int size;
+
+        public ChildBatch() {
+            this(MAX_MOVES);
+        }
+
+        public ChildBatch(int capacity) {
+            moves = new int[capacity];
+            muscovitePieces = new int[capacity];
+            swedePieces = new int[capacity];
+            winners = new int[capacity];
+            kingSquares = new int[capacity];
+            captures = new int[capacity];
+            hashKeys = new long[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Fills the batch with the result of each of the first count packed moves, which
+     * must be legal here (they are not validated), and returns count. Every move is
+     * played on this state and taken back in turn, so no child states are created and
+     * this state is left as it was.
+     */
+    public int evaluateChildren(int[] packedMoves, int count, ChildBatch batch) {
+        int muscovites = getNumberPlayerPieces(MUSCOVITE);
+        int swedes = getNumberPlayerPieces(SWEDE);
+        boolean swedesCaptured = getOpponent() == SWEDE;
+        for (int i = 0; i < count; i++) {
+            int packedMove = packedMoves[i];
+            long undo = applyTrustedMove(packedMove);
+            int captures = (int) (undo >>> UNDO_CAPTURES_SHIFT) & 0xF;
+            int captured = Integer.bitCount(captures);
+            batch.moves[i] = packedMove;
+            batch.muscovitePieces[i] = swedesCaptured ? muscovites : muscovites - captured;
+            batch.swedePieces[i] = swedesCaptured ? swedes - captured - ((kingSquare == NO_SQUARE) ? 1 : 0) : swedes;
+            batch.winners[i] = winner;
+            batch.kingSquares[i] = kingSquare;
+            batch.captures[i] = captures;
+            batch.hashKeys[i] = hashKey;
+            undoMove(undo);
+        }
+        batch.size = count;
+        return count;
+    }
+
+    /**
+     * Random playout kernel for rollouts. Plays uniformly random legal moves on this
+     * state, in place, until the game is over or maxTurns more turns have passed,
+     * and returns the winner (Board.NOBODY if the cutoff came first). No move lists
+     * or TablutMove objects are created along the way.
+     */
+    public int playRandomGame(int maxTurns, Random random) {
+        int[] pieceMoves = playoutScratch.get();
+        int firstTurn = turnNumber;
+        while (winner == Board.NOBODY && turnNumber - firstTurn < maxTurns) {
+            int packedMove = randomLegalMove(random, pieceMoves);
+            if (packedMove == NO_MOVE) {
+                break;
+            }
+            applyTrustedMove(packedMove);
+        }
+        return winner;
+    }
+
+    public int playRandomGame(int maxTurns) {
+        return playRandomGame(maxTurns, getThreadRandom());
+    }
+
+    /*
+     * Picks a uniformly random legal move, packed, or NO_MOVE if there are none. The
+     * number of moves of every piece is counted first, then only the chosen piece's
+     * moves are walked to find the one at the drawn index. pieceMoves is scratch
+     * space for (count << 7 | square) per piece, of at least MAX_PIECES entries.
+     */
+    private int randomLegalMove(Random random, int[] pieceMoves) {
+        int pieces = 0;
+        int total = 0;
+        for (int w = 0; w < 2; w++) {
+            long word = bits[word(turnPlayer, w << 6)];
+            while (word != 0) {
+                int square = (w << 6) | Long.numberOfTrailingZeros(word);
+                int count = countLegalMovesFrom(square, false);
+                pieceMoves[pieces++] = (count << 7) | square;
+                total += count;
+                word &= word - 1;
+            }
+        }
+        if (turnPlayer == SWEDE && kingSquare != NO_SQUARE) {
+            int count = countLegalMovesFrom(kingSquare, true);
+            pieceMoves[pieces++] = (count << 7) | kingSquare;
+            total += count;
+        }
+        if (total == 0) {
+            return NO_MOVE;
+        }
+
+        int index = random.nextInt(total);
+        int piece = 0;
+        while (index >= (pieceMoves[piece] >>> 7)) {
+            index -= pieceMoves[piece++] >>> 7;
+        }
+        int from = pieceMoves[piece] & 0x7F;
+        return selectLegalMoveFrom(from, from == kingSquare, index);
+    }
+
+    private int countLegalMovesFrom(int from, boolean isKing) {
+        int count = 0;
+        for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+            for (int to : Coordinates.getRay(from, dir)) {
+                if (isOccupied(to)) {
+                    break;
                 }
+                if (pieceIsAllowedAt(to, isKing)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private int selectLegalMoveFrom(int from, boolean isKing, int index) {
+        for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+            for (int to : Coordinates.getRay(from, dir)) {
+                if (isOccupied(to)) {
+                    break;
+                }
+                if (pieceIsAllowedAt(to, isKing) && index-- == 0) {
+                    return TablutMove.pack(from, to, turnPlayer);
+                }
+            }
+        }
+        throw new IllegalArgumentException("Move index out of range.");
+    }
+
+    /**
+     * Check if there are any legal moves for the player. This is a lookup in the
+     * mobile mask, which marks every piece that has at least one legal move.
+     */
+    private boolean playerHasALegalMove(int player) {
+        long mobileSoldiers = (bits[MOBILE] & bits[player << 1]) | (bits[MOBILE | 1] & bits[(player << 1) | 1]);
+        return mobileSoldiers != 0 || (player == SWEDE && kingSquare != NO_SQUARE && isMobile(kingSquare));
+    }
+
+    /*
+     * The mobile mask is kept up to date move by move. Whether a piece can move only
+     * depends on its neighbors and, next to the center, on the square beyond it. So
+     * after a move only the pieces around the squares whose occupancy changed (the
+     * from and to squares and any captures) need to be looked at again.
+     */
+    private void refreshMobility(int from, int to, int captures, int capturedKingSquare) {
+        refreshMobilityAround(from);
+        refreshMobilityAround(to);
+        for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+            if ((captures & (1 << dir)) != 0)
+                refreshMobilityAround(Coordinates.getNeighbor(to, dir));
+        }
+        if (capturedKingSquare != NO_SQUARE)
+            refreshMobilityAround(capturedKingSquare);
+    }
+
+    private void refreshMobilityAround(int changed) {
+        refreshMobility(changed);
+        for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+            int neighbor = Coordinates.getNeighbor(changed, dir);
+            if (neighbor != Coordinates.OFF_BOARD) {
+                refreshMobility(neighbor);
+                // A piece across the center may pass over it to reach this square.
+                if (neighbor == CENTER_SQUARE)
+                    refreshMobility(Coordinates.getSandwichSquare(changed, dir));
             }
         }
+    }
+
+    private void refreshMobility(int square) {
+        if (isOccupied(square) && pieceHasALegalMove(square, square == kingSquare))
+            bits[MOBILE | (square >>> 6)] |= 1L << square;
+        else
+            bits[MOBILE | (square >>> 6)] &= ~(1L << square);
+    }
+
+    private boolean isMobile(int square) {
+        return (bits[MOBILE | (square >>> 6)] & (1L << square)) != 0;
+    }
+
+    // A piece can move if it has an empty neighbor it may stop on, or if it can
+    // pass over an empty center.
+    private boolean pieceHasALegalMove(int square, boolean isKing) {
+        for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+            int neighbor = Coordinates.getNeighbor(square, dir);
+            if (neighbor == Coordinates.OFF_BOARD || isOccupied(neighbor))
+                continue;
+            if (pieceIsAllowedAt(neighbor, isKing))
+                return true;
+            // Need another convoluted check just in case it is the center.
+            if (neighbor == CENTER_SQUARE && !isOccupied(Coordinates.getSandwichSquare(square, dir)))
+                return true;
+        }
         return false;
     }
 
@@ -262,57 +791,200 @@ public class TablutBoardState extends BoardState {
      * is.
      */
     public ArrayList<TablutMove> getLegalMovesForPosition(Coord start) {
-        ArrayList<TablutMove> legalMoves = new ArrayList<>();
-
         // Check that the piece being requested actually belongs to the player.
-        Piece piece = getPieceAt(start);
-        if (piecesToPlayer.get(piece) != turnPlayer) {
-            return legalMoves;
-        }
-
-        // Iterate along 4 directions.
-        List<Coord> goodCoords = new ArrayList<>();
-        goodCoords.addAll(getLegalCoordsInDirection(start, -1, 0)); // move in -x direction
-        goodCoords.addAll(getLegalCoordsInDirection(start, 0, -1)); // move in -y direction
-        goodCoords.addAll(getLegalCoordsInDirection(start, 1, 0)); // move in +x direction
-        goodCoords.addAll(getLegalCoordsInDirection(start, 0, 1)); // move in +y direction
-
-        /*
-         * Add the real moves now. We do not call isLegal here; this is because we
-         * efficiently enforce legality by only adding those that are legal. This makes
-         * for a more efficient method so people aren't slowed down by just figuring out
-         * what they can do.
-         */
-        for (Coord end : goodCoords) {
-            if (pieceIsAllowedAt(end, piece)) {// only king moves to corner or center, so need to check.
-                legalMoves.add(new TablutMove(start, end, this.turnPlayer));
+        if (!turnPlayerCanMoveFrom(start)) {
+            return new ArrayList<>();
+        }
+        int from = square(start.x, start.y);
+        int[] packedMoves = new int[MAX_MOVES];
+        return toMoveList(packedMoves, addLegalMovesFrom(from, from == kingSquare, packedMoves, 0));
+    }
+
+    /*
+     * Add the real moves now. We do not call isLegal here; this is because we
+     * efficiently enforce legality by only adding those that are legal. Pieces may
+     * slide through an empty center, but only the king can stop there or on a corner.
+     * Moves are written from index count onwards, and the new count is returned.
+     */
+    private int addLegalMovesFrom(int from, boolean isKing, int[] moves, int count) {
+        // Directions are -x, -y, +x, +y.
+        for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+            for (int to : Coordinates.getRay(from, dir)) {
+                if (isOccupied(to)) {
+                    break;
+                }
+                if (pieceIsAllowedAt(to, isKing)) {
+                    moves[count++] = TablutMove.pack(from, to, turnPlayer);
+                }
             }
         }
-        return legalMoves;
+        return count;
     }
 
-    private List<Coord> getLegalCoordsInDirection(Coord start, int x, int y) {
-        ArrayList<Coord> coords = new ArrayList<>();
-        assert (!(x != 0 && y != 0));
-        int startPos = (x != 0) ? start.x : start.y; // starting at x or y
-        int incr = (x != 0) ? x : y; // incrementing the x or y value
-        int endIdx = (incr == 1) ? BOARD_SIZE - 1 : 0; // moving in the 0 or 8 direction
+    private int addStagedMoves(int stage, int[] moves, long[] targets) {
+        if (winner != Board.NOBODY) {
+            return 0;
+        }
+        switch (stage) {
+        case STAGE_WINS:
+            return (turnPlayer == SWEDE) ? addKingMoves(moves, true) : addCaptures(moves, true, targets);
+        case STAGE_CAPTURES:
+            return addCaptures(moves, false, targets);
+        case STAGE_KING_MOVES:
+            return (turnPlayer == SWEDE) ? addKingMoves(moves, false) : 0;
+        default:
+            return addQuietMoves(moves);
+        }
+    }
 
-        for (int i = startPos + incr; incr * i <= endIdx; i += incr) { // increasing/decreasing functionality
-            // new coord is an x coord change or a y coord change
-            Coord coord = (x != 0) ? Coordinates.get(i, start.y) : Coordinates.get(start.x, i);
-            if (coordIsEmpty(coord)) {
-                coords.add(coord);
-            } else {
-                break;
+    // King moves that reach a corner, or those that don't and capture nothing.
+    private int addKingMoves(int[] moves, boolean toCorner) {
+        int count = 0;
+        if (kingSquare == NO_SQUARE) {
+            return count;
+        }
+        for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+            for (int to : Coordinates.getRay(kingSquare, dir)) {
+                if (isOccupied(to)) {
+                    break;
+                }
+                if (isCorner(to) ? toCorner : (!toCorner && capturesAt(to) == 0)) {
+                    moves[count++] = TablutMove.pack(kingSquare, to, turnPlayer);
+                }
             }
         }
-        return coords;
+        return count;
+    }
+
+    /*
+     * Moves that capture the king, or those that capture soldiers but neither the
+     * king nor end on a corner. Rather than trying every move, this looks at the
+     * empty squares next to enemy pieces and, for those where a capture would
+     * happen, at the nearest piece along each line through them. Those squares are
+     * collected in the caller's two-word scratch mask, so nothing is allocated.
+     */
+    private int addCaptures(int[] moves, boolean kingCaptures, long[] targets) {
+        int count = 0;
+        int opponent = getOpponent();
+        targets[0] = 0;
+        targets[1] = 0;
+        for (int w = 0; w < 2; w++) {
+            long word = bits[word(opponent, w << 6)];
+            while (word != 0) {
+                markEmptyNeighbors((w << 6) | Long.numberOfTrailingZeros(word), targets);
+                word &= word - 1;
+            }
+        }
+        if (opponent == SWEDE && kingSquare != NO_SQUARE) {
+            markEmptyNeighbors(kingSquare, targets);
+        }
+
+        for (int w = 0; w < 2; w++) {
+            long word = targets[w];
+            while (word != 0) {
+                int to = (w << 6) | Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                int captured = capturesAt(to);
+                if (kingCaptures ? (captured & CAPTURES_KING) == 0 : captured != CAPTURES_SOLDIER) {
+                    continue;
+                }
+                for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+                    for (int from : Coordinates.getRay(to, dir)) {
+                        if (!isOccupied(from)) {
+                            continue;
+                        }
+                        boolean isKing = from == kingSquare;
+                        if (ownerAt(from) == turnPlayer && pieceIsAllowedAt(to, isKing) && !(isKing && isCorner(to))) {
+                            moves[count++] = TablutMove.pack(from, to, turnPlayer);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private void markEmptyNeighbors(int square, long[] mask) {
+        for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+            int neighbor = Coordinates.getNeighbor(square, dir);
+            if (neighbor != Coordinates.OFF_BOARD && !isOccupied(neighbor))
+                mask[neighbor >>> 6] |= 1L << neighbor;
+        }
+    }
+
+    // Soldier moves that capture nothing.
+    private int addQuietMoves(int[] moves) {
+        int count = 0;
+        for (int w = 0; w < 2; w++) {
+            long word = bits[word(turnPlayer, w << 6)];
+            while (word != 0) {
+                int from = (w << 6) | Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+                    for (int to : Coordinates.getRay(from, dir)) {
+                        if (isOccupied(to)) {
+                            break;
+                        }
+                        if (pieceIsAllowedAt(to, false) && capturesAt(to) == 0) {
+                            moves[count++] = TablutMove.pack(from, to, turnPlayer);
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private static final int CAPTURES_SOLDIER = 1;
+    private static final int CAPTURES_KING = 2;
+
+    /*
+     * What a piece of the turn player arriving on the empty square "to" would capture,
+     * as flags, following the same rules as checkCapture. Where the piece comes from
+     * never matters: it can't leave a sandwich square or a square next to the king
+     * without the captured piece having been in its way.
+     */
+    private int capturesAt(int to) {
+        int opponent = getOpponent();
+        int captured = 0;
+        for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+            int enemy = Coordinates.getNeighbor(to, dir);
+            if (enemy == Coordinates.OFF_BOARD) {
+                continue;
+            }
+            int sandwich = Coordinates.getSandwichSquare(to, dir);
+            if (enemy == kingSquare && opponent == SWEDE) {
+                if (isCenterOrNeighborCenter(enemy)) {
+                    boolean surrounded = true;
+                    for (int d = 0; d < Coordinates.NUM_DIRECTIONS; d++) {
+                        int s = Coordinates.getNeighbor(enemy, d);
+                        surrounded &= s == to || s == CENTER_SQUARE || hasSoldier(MUSCOVITE, s);
+                    }
+                    if (surrounded)
+                        captured |= CAPTURES_KING;
+                } else if (sandwich != Coordinates.OFF_BOARD && canCaptureWithSquare(sandwich)) {
+                    captured |= CAPTURES_KING;
+                }
+            } else if (hasSoldier(opponent, enemy) && sandwich != Coordinates.OFF_BOARD
+                    && canCaptureWithSquare(sandwich)) {
+                captured |= CAPTURES_SOLDIER;
+            }
+        }
+        return captured;
+    }
+
+    private static ArrayList<TablutMove> toMoveList(int[] packedMoves, int count) {
+        ArrayList<TablutMove> moves = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            moves.add(TablutMove.unpack(packedMoves[i]));
+        }
+        return moves;
     }
 
-    // Determines whether or not this coord is a valid coord we can sandwich with.
-    private boolean canCaptureWithCoord(Coord c) {
-        return Coordinates.isCorner(c) || Coordinates.isCenter(c) || piecesToPlayer.get(getPieceAt(c)) == turnPlayer;
+    // Determines whether or not this square is a valid square we can sandwich with.
+    private boolean canCaptureWithSquare(int square) {
+        return isCorner(square) || square == CENTER_SQUARE || ownerAt(square) == turnPlayer;
     }
 
     // Returns all of the coordinates of pieces belonging to the current player.
@@ -320,22 +992,30 @@ public class TablutBoardState extends BoardState {
         if (turnPlayer != MUSCOVITE && turnPlayer != SWEDE) {
             return null;
         }
-        return new HashSet<Coord>(getPlayerCoordSet(turnPlayer)); // Copy the set so no funny business.
+        return getPlayerCoordSet(turnPlayer);
     }
 
     public HashSet<Coord> getOpponentPieceCoordinates() {
         if (turnPlayer != MUSCOVITE && turnPlayer != SWEDE) {
             return null;
         }
-        return new HashSet<Coord>(getPlayerCoordSet(getOpponent())); // Copy the set so no funny business.
-    }
-
-    private HashSet<Coord> getPlayerCoordSet() {
-        return getPlayerCoordSet(turnPlayer);
+        return getPlayerCoordSet(getOpponent());
     }
 
+    // Builds a fresh set from the bitboards, so no funny business.
     private HashSet<Coord> getPlayerCoordSet(int player) {
-        return (player == MUSCOVITE) ? muscoviteCoords : swedeCoords;
+        HashSet<Coord> coords = new HashSet<>();
+        for (int w = 0; w < 2; w++) {
+            long word = bits[word(player, w << 6)];
+            while (word != 0) {
+                coords.add(get((w << 6) | Long.numberOfTrailingZeros(word)));
+                word &= word - 1;
+            }
+        }
+        if (player == SWEDE && kingSquare != NO_SQUARE) {
+            coords.add(get(kingSquare));
+        }
+        return coords;
     }
 
     public boolean isLegal(TablutMove move) {
@@ -344,12 +1024,11 @@ public class TablutBoardState extends BoardState {
             return false;
 
         // Get useful things.
-        Coord start = move.getStartPosition();
+        Coord start = move.getStartPosition(); // this will check if the position is on the board
         Coord end = move.getEndPosition();
-        Piece piece = getPieceAt(start); // this will check if the position is on the board
 
         // Check that the piece being requested actually belongs to the player.
-        if (piecesToPlayer.get(piece) != turnPlayer)
+        if (!turnPlayerCanMoveFrom(start))
             return false;
 
         // Next, make sure move doesn't end on a piece.
@@ -365,15 +1044,14 @@ public class TablutBoardState extends BoardState {
         if (!(start.x == end.x || start.y == end.y))
             return false;
 
-        // Now we make sure it isn't moving through any other pieces.
-        for (Coord throughCoordinate : start.getCoordsBetween(end)) {
-            if (!coordIsEmpty(throughCoordinate))
-                return false;
-        }
+        // Now we make sure it isn't moving through any other pieces. The end square
+        // is known to be empty by now, so it can be included in the check.
+        if (!isPathClear(square(start.x, start.y), square(end.x, end.y)))
+            return false;
 
         // Make sure, if its a corner or center, that the king is the only one able to
         // go there.
-        if (!pieceIsAllowedAt(end, piece))
+        if (!pieceIsAllowedAt(square(end.x, end.y), square(start.x, start.y) == kingSquare))
             return false;
 
         // All of the conditions have been satisfied, we have a legal move!
@@ -382,7 +1060,16 @@ public class TablutBoardState extends BoardState {
 
     /* ----- Useful helper functions. ----- */
     public Piece getPieceAt(int xPosition, int yPosition) {
-        return board[xPosition][yPosition];
+        if (xPosition < 0 || xPosition >= BOARD_SIZE || yPosition < 0 || yPosition >= BOARD_SIZE)
+            throw new ArrayIndexOutOfBoundsException(String.format("(%d %d) is off the board", xPosition, yPosition));
+        int square = square(xPosition, yPosition);
+        if (square == kingSquare)
+            return Piece.KING;
+        if (hasSoldier(MUSCOVITE, square))
+            return Piece.BLACK;
+        if (hasSoldier(SWEDE, square))
+            return Piece.WHITE;
+        return Piece.EMPTY;
     }
 
     public Piece getPieceAt(Coord position) {
@@ -390,15 +1077,16 @@ public class TablutBoardState extends BoardState {
     }
 
     public boolean turnPlayerCanMoveFrom(Coord position) {
-        return piecesToPlayer.get(getPieceAt(position)) == turnPlayer;
+        return ownerAt(square(position.x, position.y)) == turnPlayer;
     }
 
     public boolean isOpponentPieceAt(Coord position) {
-        return !(coordIsEmpty(position)) && piecesToPlayer.get(getPieceAt(position)) != turnPlayer;
+        int owner = ownerAt(square(position.x, position.y));
+        return owner != ILLEGAL && owner != turnPlayer;
     }
 
     public boolean coordIsEmpty(Coord c) {
-        return getPieceAt(c) == Piece.EMPTY;
+        return !isOccupied(square(c.x, c.y));
     }
 
     public int getOpponent() {
@@ -406,17 +1094,390 @@ public class TablutBoardState extends BoardState {
     }
 
     public int getNumberPlayerPieces(int player) {
-        return getPlayerCoordSet(player).size();
+        int count = Long.bitCount(bits[player << 1]) + Long.bitCount(bits[(player << 1) | 1]);
+        return (player == SWEDE && kingSquare != NO_SQUARE) ? count + 1 : count;
+    }
+
+    /**
+     * Zobrist hash of the piece placement and the player to move. Equal positions
+     * always have equal keys, so this can be used as a cheap identity for
+     * transposition tables and the like; turn number and winner are not included.
+     */
+    public long getHashKey() {
+        return hashKey;
+    }
+
+    /**
+     * Hash key of this position with the board transformed by the given symmetry, see
+     * Coordinates.transform. getHashKey(Coordinates.IDENTITY) equals getHashKey().
+     */
+    public long getHashKey(int symmetry) {
+        long key = (turnPlayer == SWEDE) ? ZOBRIST_SWEDE_TO_MOVE : 0;
+        if (kingSquare != NO_SQUARE)
+            key ^= ZOBRIST_PIECES[Piece.KING.ordinal()][Coordinates.transform(kingSquare, symmetry)];
+        for (int w = 0; w < 4; w++) {
+            long[] pieceKeys = ZOBRIST_PIECES[w >>> 1];
+            long word = bits[w];
+            while (word != 0) {
+                int square = ((w & 1) << 6) | Long.numberOfTrailingZeros(word);
+                key ^= pieceKeys[Coordinates.transform(square, symmetry)];
+                word &= word - 1;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * The rules and the starting position don't change when the board is rotated or
+     * mirrored, so the eight images of a position play out the same. The canonical
+     * image is the one with the smallest hash key, and this returns the symmetry
+     * (lowest one on ties) that takes this position to it. A move m here is
+     * m.transform(symmetry) in the canonical position; moves stored for the
+     * canonical position come back with Coordinates.inverseSymmetry(symmetry).
+     */
+    public int getCanonicalSymmetry() {
+        int canonical = Coordinates.IDENTITY;
+        long canonicalKey = hashKey;
+        for (int symmetry = 1; symmetry < Coordinates.NUM_SYMMETRIES; symmetry++) {
+            long key = getHashKey(symmetry);
+            if (key < canonicalKey) {
+                canonical = symmetry;
+                canonicalKey = key;
+            }
+        }
+        return canonical;
+    }
+
+    // Same for every image of a position, so it can key one entry per equivalence class.
+    public long getCanonicalHashKey() {
+        return getHashKey(getCanonicalSymmetry());
+    }
+
+    /* ----- Tactical queries. These hold whoever is to move. ----- */
+
+    /**
+     * Whether this position, with the same player to move, already came up in the
+     * last few plies of this state's history (see REPETITION_PLIES). The history
+     * is carried over by clone and by the moves made on this state, so it starts
+     * empty for a new or deserialized state.
+     */
+    public boolean isRepetition() {
+        return getRepetitionCount() > 0;
+    }
+
+    // Number of times this position came up before within the history looked at.
+    public int getRepetitionCount() {
+        int ply = getPly();
+        int count = 0;
+        for (int back = 2; back <= reversiblePlies; back += 2) {
+            if (bits[HISTORY + ((ply - back) % HISTORY_SIZE)] == hashKey)
+                count++;
+        }
+        return count;
+    }
+
+    // Half moves played since the start, muscovites moving first.
+    private int getPly() {
+        return 2 * turnNumber + ((turnPlayer == FIRST_PLAYER) ? 0 : 1);
+    }
+
+    public static final int NO_ESCAPE = Integer.MAX_VALUE;
+
+    /**
+     * Fewest king moves needed to reach the nearest corner if no other piece moved,
+     * or NO_ESCAPE if every corner is walled off or the king is gone. 1 means the
+     * king has an open line to a corner, 0 that he is on one. Unlike Coordinates.distanceToClosestCorner,
+     * this goes around the pieces in the way.
+     *
+     * Not thread-safe, even though it looks like a getter: a cache miss rewrites the
+     * cached distances, in several fields. Don't call it on a state other threads
+     * are reading; call it on a copy (clone) instead.
+     */
+    public int getKingEscapeDistance() {
+        int distances = getKingEscapeDistances();
+        int min = NO_ESCAPE;
+        for (int corner = 0; corner < CORNER_SQUARES.length; corner++) {
+            min = Math.min(min, escapeDistance(distances, corner));
+        }
+        return min;
+    }
+
+    // Same, for one given corner, and just as unsafe to share across threads.
+    public int getKingEscapeDistance(Coord corner) {
+        int square = square(corner.x, corner.y);
+        for (int i = 0; i < CORNER_SQUARES.length; i++) {
+            if (CORNER_SQUARES[i] == square)
+                return escapeDistance(getKingEscapeDistances(), i);
+        }
+        throw new IllegalArgumentException(corner + " is not a corner.");
+    }
+
+    private static int escapeDistance(int distances, int corner) {
+        int distance = (distances >>> (8 * corner)) & 0xFF;
+        return (distance == 0xFF) ? NO_ESCAPE : distance;
+    }
+
+    private static int setEscapeDistance(int distances, int cornerSquare, int distance) {
+        int shift = 8 * ((cornerSquare == 0) ? 0 : (cornerSquare == 8) ? 1 : (cornerSquare == 72) ? 2 : 3);
+        return (distances & ~(0xFF << shift)) | (distance << shift);
+    }
+
+    private int getKingEscapeDistances() {
+        if (kingSquare == NO_SQUARE) {
+            return -1; // all 0xFF
+        }
+        if (escapeKingSquare != kingSquare || ((bits[0] | bits[2]) & escapeSquares0) != escapeOccupancy0
+                || ((bits[1] | bits[3]) & escapeSquares1) != escapeOccupancy1) {
+            computeKingEscapeDistances();
+        }
+        return escapeDistances;
+    }
+
+    /*
+     * Breadth-first search over king moves, one rook move per level, until all four
+     * corners are found or there is nowhere new to go. Besides the distances it
+     * records every square it reached and every piece that ended a slide, since those
+     * are the only squares whose change can alter the result.
+     */
+    private void computeKingEscapeDistances() {
+        long reached0 = 0;
+        long reached1 = 0;
+        long blockers0 = 0;
+        long blockers1 = 0;
+        int[] frontier = escapeFrontier.get();
+        int frontierStart = 0;
+        int frontierEnd = 0;
+        frontier[frontierEnd++] = kingSquare;
+        if (kingSquare < 64)
+            reached0 |= 1L << kingSquare;
+        else
+            reached1 |= 1L << kingSquare;
+
+        int distances = -1;
+        int cornersLeft = CORNER_SQUARES.length;
+        if (isCorner(kingSquare)) {
+            distances = setEscapeDistance(distances, kingSquare, 0);
+            cornersLeft--;
+        }
+        for (int distance = 1; cornersLeft > 0 && frontierStart < frontierEnd; distance++) {
+            int levelEnd = frontierEnd;
+            for (; frontierStart < levelEnd; frontierStart++) {
+                for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+                    for (int to : Coordinates.getRay(frontier[frontierStart], dir)) {
+                        // The king's own square counts as empty, he is the one moving.
+                        if (to != kingSquare && (hasSoldier(MUSCOVITE, to) || hasSoldier(SWEDE, to))) {
+                            if (to < 64)
+                                blockers0 |= 1L << to;
+                            else
+                                blockers1 |= 1L << to;
+                            break;
+                        }
+                        long bit = 1L << to;
+                        if ((((to < 64) ? reached0 : reached1) & bit) != 0)
+                            continue;
+                        if (to < 64)
+                            reached0 |= bit;
+                        else
+                            reached1 |= bit;
+                        frontier[frontierEnd++] = to;
+                        if (isCorner(to)) {
+                            distances = setEscapeDistance(distances, to, distance);
+                            cornersLeft--;
+                        }
+                    }
+                }
+            }
+        }
+
+        escapeDistances = distances;
+        escapeKingSquare = kingSquare;
+        escapeSquares0 = reached0 | blockers0;
+        escapeSquares1 = reached1 | blockers1;
+        escapeOccupancy0 = (bits[0] | bits[2]) & escapeSquares0;
+        escapeOccupancy1 = (bits[1] | bits[3]) & escapeSquares1;
+    }
+
+    /**
+     * Marks in mask the pieces of the given player, king included, that the other
+     * side could capture with its next move, and returns how many there are. The
+     * mask is two words like the board's bitboards: square s is bit (s & 63) of
+     * word (s >>> 6), where squares are numbered x * BOARD_SIZE + y.
+     */
+    public int getCapturablePieces(int player, long[] mask) {
+        mask[0] = 0;
+        mask[1] = 0;
+        int count = 0;
+        for (int w = 0; w < 2; w++) {
+            long word = bits[word(player, w << 6)];
+            while (word != 0) {
+                int square = (w << 6) | Long.numberOfTrailingZeros(word);
+                if (isCapturable(square, player)) {
+                    mask[w] |= 1L << square;
+                    count++;
+                }
+                word &= word - 1;
+            }
+        }
+        if (player == SWEDE && kingSquare != NO_SQUARE && isCapturable(kingSquare, SWEDE)) {
+            mask[kingSquare >>> 6] |= 1L << kingSquare;
+            count++;
+        }
+        return count;
+    }
+
+    // Whether the piece at c could be captured by the other side's next move.
+    public boolean isCapturable(Coord c) {
+        int square = square(c.x, c.y);
+        return isOccupied(square) && isCapturable(square, ownerAt(square));
+    }
+
+    /**
+     * Number of sides of the king taken by muscovites or by the corners and center,
+     * which count as attackers for captures. 0 if the king is gone.
+     */
+    public int getCoveredKingSides() {
+        if (kingSquare == NO_SQUARE) {
+            return 0;
+        }
+        int covered = 0;
+        for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+            int side = Coordinates.getNeighbor(kingSquare, dir);
+            if (side != Coordinates.OFF_BOARD && isHostileTo(side, SWEDE))
+                covered++;
+        }
+        return covered;
+    }
+
+    // Whether some piece of the given player could move to the given square.
+    public boolean isReachable(int player, Coord target) {
+        int square = square(target.x, target.y);
+        return !isOccupied(square) && isReachable(player, square);
+    }
+
+    private boolean isReachable(int player, int to) {
+        for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+            for (int from : Coordinates.getRay(to, dir)) {
+                if (isOccupied(from)) {
+                    if (ownerAt(from) == player && pieceIsAllowedAt(to, from == kingSquare))
+                        return true;
+                    break;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Squares that take part in capturing the player's pieces, as in canCaptureWithSquare.
+    private boolean isHostileTo(int square, int player) {
+        return isCorner(square) || square == CENTER_SQUARE || ownerAt(square) == 1 - player;
+    }
+
+    /*
+     * Same rules as checkCapture, seen from the piece: it can be captured if one side
+     * of it is hostile and the opposite side is empty and reachable by the enemy. A
+     * king at or next to the center needs all four sides taken, so it is only in
+     * danger with three taken and an enemy able to reach the fourth.
+     */
+    private boolean isCapturable(int square, int player) {
+        int enemy = 1 - player;
+        if (square == kingSquare && isCenterOrNeighborCenter(square)) {
+            int open = NO_SQUARE;
+            for (int dir = 0; dir < Coordinates.NUM_DIRECTIONS; dir++) {
+                int side = Coordinates.getNeighbor(square, dir);
+                if (side != CENTER_SQUARE && !hasSoldier(MUSCOVITE, side)) {
+                    if (open != NO_SQUARE || isOccupied(side))
+                        return false;
+                    open = side;
+                }
+            }
+            return open != NO_SQUARE && isReachable(MUSCOVITE, open);
+        }
+        for (int dir = 0; dir < 2; dir++) {
+            int side = Coordinates.getNeighbor(square, dir);
+            int opposite = Coordinates.getNeighbor(square, dir + 2);
+            if (side == Coordinates.OFF_BOARD || opposite == Coordinates.OFF_BOARD)
+                continue;
+            if (isHostileTo(side, player) && !isOccupied(opposite) && isReachable(enemy, opposite))
+                return true;
+            if (isHostileTo(opposite, player) && !isOccupied(side) && isReachable(enemy, side))
+                return true;
+        }
+        return false;
     }
 
     public Coord getKingPosition() {
-        return kingPosition;
+        return (kingSquare == NO_SQUARE) ? null : get(kingSquare);
     }
 
     // If its a king, it can move anywhere. Otherwise, make sure it isn't trying to
     // move to the center or a corner.
-    private boolean pieceIsAllowedAt(Coord pos, Piece piece) {
-        return piece == Piece.KING || !(Coordinates.isCorner(pos) || Coordinates.isCenter(pos));
+    private static boolean pieceIsAllowedAt(int square, boolean isKing) {
+        return isKing || (RESTRICTED_SQUARES[square >>> 6] & (1L << square)) == 0;
+    }
+
+    /* ----- Bitboard helpers. ----- */
+    private static int square(int x, int y) {
+        return x * BOARD_SIZE + y;
+    }
+
+    private static Coord get(int square) {
+        return Coordinates.get(square);
+    }
+
+    private static boolean isCorner(int square) {
+        return square != CENTER_SQUARE && (RESTRICTED_SQUARES[square >>> 6] & (1L << square)) != 0;
+    }
+
+    private static boolean isCenterOrNeighborCenter(int square) {
+        return Coordinates.isCenterOrNeighborCenter(square / BOARD_SIZE, square % BOARD_SIZE);
+    }
+
+    // Index into bits of the word holding this player's soldier on this square.
+    private static int word(int player, int square) {
+        return (player << 1) | (square >>> 6);
+    }
+
+    private boolean hasSoldier(int player, int square) {
+        return (bits[word(player, square)] & (1L << square)) != 0;
+    }
+
+    // Soldier keys share the Piece ordinals, BLACK = MUSCOVITE and WHITE = SWEDE.
+    private void addPiece(int player, int square) {
+        bits[word(player, square)] |= 1L << square;
+        hashKey ^= ZOBRIST_PIECES[player][square];
+    }
+
+    private void removePiece(int player, int square) {
+        bits[word(player, square)] &= ~(1L << square);
+        hashKey ^= ZOBRIST_PIECES[player][square];
+    }
+
+    private boolean isOccupied(int square) {
+        int w = square >>> 6;
+        return square == kingSquare || ((bits[w] | bits[2 | w]) & (1L << square)) != 0;
+    }
+
+    private long occupiedWord(int w) {
+        long occupied = bits[w] | bits[2 | w];
+        return (kingSquare >>> 6 == w) ? occupied | (1L << kingSquare) : occupied;
+    }
+
+    // True if every square from the first (excluded) up to the second (included),
+    // which share a row or column, is empty.
+    private boolean isPathClear(int from, int to) {
+        int dir = Coordinates.getDirection(from, to);
+        for (int w = 0; w < 2; w++) {
+            long between = Coordinates.getRayMask(from, dir, w) & ~Coordinates.getRayMask(to, dir, w);
+            if ((between & occupiedWord(w)) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    private int ownerAt(int square) {
+        if (square == kingSquare || hasSoldier(SWEDE, square))
+            return SWEDE;
+        return hasSoldier(MUSCOVITE, square) ? MUSCOVITE : ILLEGAL;
     }
 
     /* ----- Used by server. ----- */
@@ -458,8 +1519,23 @@ public class TablutBoardState extends BoardState {
 
     @Override
     public Move getRandomMove() {
-        ArrayList<TablutMove> moves = getAllLegalMoves();
-        return moves.get(rand.nextInt(moves.size()));
+        int packedMove = randomLegalMove(getThreadRandom(), playoutScratch.get());
+        if (packedMove == NO_MOVE) {
+            throw new IllegalArgumentException("There are no legal moves to choose from.");
+        }
+        return TablutMove.unpack(packedMove);
+    }
+
+    /**
+     * Installs the RNG used for random moves by all states on the calling thread,
+     * e.g. a seeded one to make simulations reproducible.
+     */
+    public static void setThreadRandom(Random random) {
+        threadRandom.set(random);
+    }
+
+    public static Random getThreadRandom() {
+        return threadRandom.get();
     }
 
     /*** Debugging functionality is found below. ***/
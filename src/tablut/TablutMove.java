@@ -5,8 +5,53 @@ import coordinates.Coord;
 import coordinates.Coordinates;
 import tablut.TablutBoardState;
 
+/**
+ * A move of one piece for one player. Instances returned by unpack, parse and the
+ * move generators of TablutBoardState are shared flyweights, one per packed move.
+ * They can't be changed: setPlayerID and setFromBoard throw
+ * UnsupportedOperationException when asked to change a shared move's value, and
+ * accept setting the value it already has. Create a new TablutMove with the
+ * constructors to get one that can be changed.
+ */
 public class TablutMove extends Move {
 
+    /*
+     * Moves can also be packed into a single int, as produced by
+     * TablutBoardState.getAllLegalMoves(int[]). Bits 0-6 hold the start square,
+     * bits 7-13 the end square and bit 14 the player, where squares are numbered
+     * x * BOARD_SIZE + y. That is 15 bits in all, so a packed move also fits in a
+     * short.
+     */
+    private static final int SQUARE_BITS = 7;
+    private static final int SQUARE_MASK = (1 << SQUARE_BITS) - 1;
+    private static final int BOARD_SIZE = TablutBoardState.BOARD_SIZE;
+
+    /*
+     * Flyweight table of every rook-like move on the board for both players,
+     * indexed by packed move, along with its transportable string. Packed moves
+     * that can never be legal (diagonal, zero-length) have no entry.
+     */
+    private static final TablutMove[] SHARED_MOVES = new TablutMove[1 << (2 * SQUARE_BITS + 1)];
+    private static final String[] TRANSPORTABLES = new String[SHARED_MOVES.length];
+    static {
+        for (int player : new int[] { TablutBoardState.MUSCOVITE, TablutBoardState.SWEDE }) {
+            for (int start = 0; start < BOARD_SIZE * BOARD_SIZE; start++) {
+                for (int end = 0; end < BOARD_SIZE * BOARD_SIZE; end++) {
+                    int xStart = start / BOARD_SIZE, yStart = start % BOARD_SIZE;
+                    int xEnd = end / BOARD_SIZE, yEnd = end % BOARD_SIZE;
+                    if (start != end && (xStart == xEnd || yStart == yEnd)) {
+                        int packedMove = pack(start, end, player);
+                        TablutMove move = new TablutMove(xStart, yStart, xEnd, yEnd, player);
+                        move.shared = true;
+                        SHARED_MOVES[packedMove] = move;
+                        TRANSPORTABLES[packedMove] = String.format("%d %d %d %d %d", xStart, yStart, xEnd, yEnd,
+                                player);
+                    }
+                }
+            }
+        }
+    }
+
     /* We need to store the following information about a move. */
     private int playerId = TablutBoardState.ILLEGAL;
     private int xStart = -1;
@@ -14,6 +59,7 @@ public class TablutMove extends Move {
     private int xEnd = -1;
     private int yEnd = -1;
     private boolean fromBoard = false;
+    private boolean shared = false; // flyweight instances must never change
 
     /* Constructors */
     public TablutMove(Coord start, Coord end, int playerId) {
@@ -29,16 +75,112 @@ public class TablutMove extends Move {
     }
 
     public TablutMove(String formatString) {
-        String[] components = formatString.split(" ");
-        try {
-            this.xStart = Integer.parseInt(components[0]);
-            this.yStart = Integer.parseInt(components[1]);
-            this.xEnd = Integer.parseInt(components[2]);
-            this.yEnd = Integer.parseInt(components[3]);
-            this.playerId = Integer.parseInt(components[4]);
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("Received an uninterpretable string format for a TablutMove.");
+        int[] components = parseComponents(formatString);
+        this.xStart = components[0];
+        this.yStart = components[1];
+        this.xEnd = components[2];
+        this.yEnd = components[3];
+        this.playerId = components[4];
+    }
+
+    /**
+     * Parses a transportable string like the String constructor, but returns the
+     * shared instance for the move where one exists instead of allocating.
+     */
+    public static TablutMove parse(String formatString) {
+        int[] c = parseComponents(formatString);
+        if (isPackable(c[0], c[1], c[2], c[3], c[4])) {
+            TablutMove move = SHARED_MOVES[pack(c[0] * BOARD_SIZE + c[1], c[2] * BOARD_SIZE + c[3], c[4])];
+            if (move != null)
+                return move;
+        }
+        return new TablutMove(c[0], c[1], c[2], c[3], c[4]);
+    }
+
+    /*
+     * Reads the five space-separated integers of a transportable string in a single
+     * pass. Anything after the fifth integer is ignored.
+     */
+    private static int[] parseComponents(String formatString) {
+        int[] components = new int[5];
+        int pos = 0;
+        int length = formatString.length();
+        for (int i = 0; i < components.length; i++) {
+            if (i > 0) {
+                if (pos >= length || formatString.charAt(pos) != ' ')
+                    throw new IllegalArgumentException("Received an uninterpretable string format for a TablutMove.");
+                pos++;
+            }
+            boolean negative = pos < length && formatString.charAt(pos) == '-';
+            if (negative)
+                pos++;
+            int digitsStart = pos;
+            int value = 0;
+            while (pos < length && formatString.charAt(pos) >= '0' && formatString.charAt(pos) <= '9'
+                    && pos - digitsStart < 9) {
+                value = value * 10 + (formatString.charAt(pos) - '0');
+                pos++;
+            }
+            if (pos == digitsStart || (pos < length && formatString.charAt(pos) != ' '))
+                throw new IllegalArgumentException("Received an uninterpretable string format for a TablutMove.");
+            components[i] = negative ? -value : value;
         }
+        return components;
+    }
+
+    public static int pack(int startSquare, int endSquare, int playerId) {
+        return (playerId << (2 * SQUARE_BITS)) | (endSquare << SQUARE_BITS) | startSquare;
+    }
+
+    public static int getStartSquare(int packedMove) {
+        return packedMove & SQUARE_MASK;
+    }
+
+    public static int getEndSquare(int packedMove) {
+        return (packedMove >>> SQUARE_BITS) & SQUARE_MASK;
+    }
+
+    public static int getPlayerID(int packedMove) {
+        return packedMove >>> (2 * SQUARE_BITS);
+    }
+
+    /**
+     * Returns the move for a packed int. Rook-like moves come from the shared
+     * flyweight table, so this is a lookup rather than an allocation. Shared moves
+     * can't be given a different player through setPlayerID.
+     */
+    public static TablutMove unpack(int packedMove) {
+        TablutMove move = SHARED_MOVES[packedMove];
+        if (move != null)
+            return move;
+        return new TablutMove(Coordinates.get(getStartSquare(packedMove)), Coordinates.get(getEndSquare(packedMove)),
+                getPlayerID(packedMove));
+    }
+
+    // The packed move as seen on the board transformed by the symmetry, see Coordinates.transform.
+    public static int transform(int packedMove, int symmetry) {
+        return pack(Coordinates.transform(getStartSquare(packedMove), symmetry),
+                Coordinates.transform(getEndSquare(packedMove), symmetry), getPlayerID(packedMove));
+    }
+
+    /**
+     * Returns this move as seen on the board transformed by the given symmetry. Moves
+     * found for a canonical position (see TablutBoardState.getCanonicalSymmetry) are
+     * mapped back with Coordinates.inverseSymmetry of that position's symmetry.
+     */
+    public TablutMove transform(int symmetry) {
+        return unpack(transform(toPacked(), symmetry));
+    }
+
+    // Only valid for moves whose coordinates are on the board and whose player is real.
+    public int toPacked() {
+        return pack(xStart * BOARD_SIZE + yStart, xEnd * BOARD_SIZE + yEnd, playerId);
+    }
+
+    private static boolean isPackable(int xStart, int yStart, int xEnd, int yEnd, int playerId) {
+        return xStart >= 0 && xStart < BOARD_SIZE && yStart >= 0 && yStart < BOARD_SIZE && xEnd >= 0
+                && xEnd < BOARD_SIZE && yEnd >= 0 && yEnd < BOARD_SIZE
+                && (playerId == TablutBoardState.MUSCOVITE || playerId == TablutBoardState.SWEDE);
     }
 
     /* Useful Getters */
@@ -68,11 +210,19 @@ public class TablutMove extends Move {
 
     @Override
     public void setPlayerID(int player_id) {
+        if (shared && player_id != this.playerId) {
+            throw new UnsupportedOperationException(
+                    "Shared TablutMove instances can't change player; create a new TablutMove instead.");
+        }
         this.playerId = player_id;
     }
 
     @Override
     public void setFromBoard(boolean from_board) {
+        if (shared && from_board != this.fromBoard) {
+            throw new UnsupportedOperationException(
+                    "Shared TablutMove instances can't change fromBoard; create a new TablutMove instead.");
+        }
         this.fromBoard = from_board;
     }
 
@@ -89,6 +239,11 @@ public class TablutMove extends Move {
 
     @Override
     public String toTransportable() {
+        if (isPackable(xStart, yStart, xEnd, yEnd, playerId)) {
+            String transportable = TRANSPORTABLES[toPacked()];
+            if (transportable != null)
+                return transportable;
+        }
         return String.format("%d %d %d %d %d", xStart, yStart, xEnd, yEnd, playerId);
     }
 }
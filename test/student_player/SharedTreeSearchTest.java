@@ -0,0 +1,56 @@
+package student_player;
+
+import boardgame.Move;
+import tablut.TablutBoardState;
+import tablut.TablutMove;
+
+/**
+ * Runs shared-tree searches with several threads, each from a fresh root, and checks
+ * that every one of them returns a legal move without throwing. Exits with status 1
+ * on failure, like tablut.Perft.
+ *
+ * Usage: java -cp bin:test-bin student_player.SharedTreeSearchTest [searches] [threads]
+ */
+public class SharedTreeSearchTest {
+
+    public static void main(String[] args) {
+        int searches = (args.length > 0) ? Integer.parseInt(args[0]) : 6;
+        String threads = (args.length > 1) ? args[1] : "8";
+
+        // TreeSearch reads these when it is loaded, so they have to be set first
+        System.setProperty("tablut.searchThreads", threads);
+        System.setProperty("tablut.sharedTree", "true");
+
+        boolean allPassed = true;
+        for (int i = 0; i < searches; i++) {
+            // a few random moves first, so that the searches start from different positions
+            TablutBoardState state = new TablutBoardState();
+            for (int j = 0; j < 2 * i && !state.gameOver(); j++) {
+                state.processMove((TablutMove) state.getRandomMove());
+            }
+            if (state.gameOver()) {
+                continue;
+            }
+
+            TreeSearch.discardTree();
+            String failure = null;
+            try {
+                Move move = TreeSearch.searchForMove((TablutBoardState) state.clone());
+                if (move == null) {
+                    failure = "no move returned";
+                } else if (!state.isLegal((TablutMove) move)) {
+                    failure = "illegal move " + move.toPrettyString();
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                failure = e.toString();
+            }
+            System.out.println(String.format("search %d (turn %d, %s to move): %s", i, state.getTurnNumber(),
+                    TablutMove.getPlayerName(state.getTurnPlayer()), (failure == null) ? "ok" : "FAILED, " + failure));
+            allPassed &= failure == null;
+        }
+        if (!allPassed) {
+            System.exit(1);
+        }
+    }
+}